@@ -0,0 +1,79 @@
+package com.crossposter.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a JMH JSON result file against the checked-in baseline and exits non-zero if any
+ * benchmark got slower, or allocates more per operation, by more than the given tolerance.
+ * Benchmarks missing from either file are skipped, so a filtered run (-Djmh.include) still works.
+ *
+ * Usage: BaselineCheck &lt;baseline.json&gt; &lt;result.json&gt; [tolerance, default 0.25]
+ */
+public class BaselineCheck {
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    private record Score(double time, String unit, double allocBytes) {}
+
+    public static void main(String[] args) throws Exception {
+        Path baselineFile = Path.of(args[0]);
+        Path resultFile = Path.of(args[1]);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + "; copy " + resultFile + " there to create one.");
+            return;
+        }
+
+        Map<String, Score> baseline = read(baselineFile);
+        Map<String, Score> current = read(resultFile);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> e : current.entrySet()) {
+            Score before = baseline.get(e.getKey());
+            if (before == null) continue;
+            Score now = e.getValue();
+
+            if (!before.unit().equals(now.unit())) {
+                System.out.println("SKIP " + e.getKey() + ": unit changed from " + before.unit() + " to " + now.unit());
+                continue;
+            }
+
+            boolean slower = now.time() > before.time() * (1 + tolerance);
+            // Small absolute slack so a few bytes of noise on tiny allocations don't fail the build
+            boolean allocates = now.allocBytes() > before.allocBytes() * (1 + tolerance) + 16;
+            String status = slower || allocates ? "REGRESSION" : "ok";
+            if (slower || allocates) regressions++;
+
+            System.out.println(String.format(Locale.ROOT, "%-10s %-80s %10.3f -> %10.3f %s   %8.0f -> %8.0f B/op",
+                    status, e.getKey(), before.time(), now.time(), now.unit(), before.allocBytes(), now.allocBytes()));
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed beyond " + (int) (tolerance * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(Path file) throws Exception {
+        Map<String, Score> scores = new HashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file.toFile())) {
+            JsonNode primary = run.path("primaryMetric");
+            double alloc = 0;
+            var secondary = run.path("secondaryMetrics").fields();
+            while (secondary.hasNext()) {
+                var metric = secondary.next();
+                if (metric.getKey().endsWith(ALLOC_NORM)) alloc = metric.getValue().path("score").asDouble();
+            }
+            String name = run.path("benchmark").asText() + " [" + run.path("mode").asText() + "]";
+            scores.put(name, new Score(primary.path("score").asDouble(), primary.path("scoreUnit").asText(), alloc));
+        }
+        return scores;
+    }
+}
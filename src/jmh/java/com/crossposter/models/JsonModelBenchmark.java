@@ -0,0 +1,115 @@
+package com.crossposter.models;
+
+import com.crossposter.utils.JsonUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Before/after for the typed model layer: the *Map benchmarks reproduce the old
+ * readValue(body, Map.class) / Map.of(...) code paths, the others are what the clients use now.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonModelBenchmark {
+    private static final ObjectMapper PLAIN = new ObjectMapper();
+    private static final ObjectReader TOKEN_READER = JsonUtil.MAPPER.readerFor(TokenResponse.class);
+    private static final ObjectReader STATUS_READER = JsonUtil.MAPPER.readerFor(Status.class);
+    private static final ObjectWriter CREATE_RECORD_WRITER = JsonUtil.MAPPER.writerFor(CreateRecordRequest.class);
+
+    private static final String TEXT = "Crossposting from the dashboard: release notes are up, thanks everyone who tested the beta!";
+    private static final String CREATED_AT = "2025-10-01T12:00:00Z";
+    private static final String DID = "did:plc:ewvi7nxzyoun6zhxrhs64oiz";
+
+    private final String tokenJson = "{\"access_token\":\"eyJ0eXAiOiJhdCtqd3QiLCJhbGciOiJFUzI1NksifQ.eyJzdWIiOiJkaWQ6cGxjOmV4YW1wbGUifQ.c2ln\","
+            + "\"token_type\":\"DPoP\",\"refresh_token\":\"ref-6a4f0f2c9d1b4e7f8a3c5d2e1f0a9b8c\",\"scope\":\"atproto transition:generic\","
+            + "\"expires_in\":3600,\"sub\":\"" + DID + "\"}";
+
+    private final String statusJson = "{\"id\":\"113265198765432100\",\"created_at\":\"2025-10-01T12:00:00.000Z\",\"in_reply_to_id\":null,"
+            + "\"in_reply_to_account_id\":null,\"sensitive\":false,\"spoiler_text\":\"\",\"visibility\":\"public\",\"language\":\"en\","
+            + "\"uri\":\"https://mastodon.social/users/alice/statuses/113265198765432100\","
+            + "\"url\":\"https://mastodon.social/@alice/113265198765432100\",\"replies_count\":0,\"reblogs_count\":0,"
+            + "\"favourites_count\":0,\"edited_at\":null,\"content\":\"<p>" + TEXT + "</p>\",\"reblog\":null,"
+            + "\"application\":{\"name\":\"crossposter\",\"website\":null},"
+            + "\"account\":{\"id\":\"109876543210\",\"username\":\"alice\",\"acct\":\"alice\",\"display_name\":\"Alice\","
+            + "\"locked\":false,\"bot\":false,\"discoverable\":true,\"group\":false,\"created_at\":\"2022-11-05T00:00:00.000Z\","
+            + "\"note\":\"<p>Writing things.</p>\",\"url\":\"https://mastodon.social/@alice\","
+            + "\"avatar\":\"https://files.mastodon.social/accounts/avatars/original/a.png\","
+            + "\"header\":\"https://files.mastodon.social/accounts/headers/original/h.png\",\"followers_count\":420,"
+            + "\"following_count\":210,\"statuses_count\":1337,\"emojis\":[],"
+            + "\"fields\":[{\"name\":\"Web\",\"value\":\"<a href=\\\"https://alice.example\\\">alice.example</a>\",\"verified_at\":null}]},"
+            + "\"media_attachments\":[],\"mentions\":[],\"tags\":[],\"emojis\":[],\"card\":null,\"poll\":null}";
+
+    private final String profileJson = "{\"did\":\"" + DID + "\",\"handle\":\"alice.bsky.social\",\"displayName\":\"Alice\","
+            + "\"avatar\":\"https://cdn.bsky.app/img/avatar/plain/" + DID + "/bafkrei@jpeg\","
+            + "\"associated\":{\"lists\":0,\"feedgens\":0,\"starterPacks\":0,\"labeler\":false,\"chat\":{\"allowIncoming\":\"following\"}},"
+            + "\"labels\":[],\"createdAt\":\"2023-04-01T00:00:00.000Z\",\"description\":\"Writing things. Mostly about Java, sometimes about bread.\","
+            + "\"indexedAt\":\"2025-09-30T18:00:00.000Z\",\"banner\":\"https://cdn.bsky.app/img/banner/plain/" + DID + "/bafkrei@jpeg\","
+            + "\"followersCount\":420,\"followsCount\":210,\"postsCount\":1337,"
+            + "\"viewer\":{\"muted\":false,\"blockedBy\":false},\"pinnedPost\":{\"cid\":\"bafyrei\",\"uri\":\"at://" + DID + "/app.bsky.feed.post/3l\"}}";
+
+    @Benchmark
+    public String tokenMap() throws Exception {
+        Map<String, Object> token = PLAIN.readValue(tokenJson, Map.class);
+        return (String) token.get("access_token");
+    }
+
+    @Benchmark
+    public String tokenTyped() throws Exception {
+        return TOKEN_READER.<TokenResponse>readValue(tokenJson).accessToken();
+    }
+
+    @Benchmark
+    public String statusMap() throws Exception {
+        Map<String, Object> status = PLAIN.readValue(statusJson, Map.class);
+        return (String) status.get("uri");
+    }
+
+    @Benchmark
+    public String statusTyped() throws Exception {
+        return STATUS_READER.<Status>readValue(statusJson).uri();
+    }
+
+    @Benchmark
+    public String profileMap() throws Exception {
+        Map<String, Object> profile = PLAIN.readValue(profileJson, Map.class);
+        return (String) profile.get("handle");
+    }
+
+    @Benchmark
+    public String profileStreaming() throws Exception {
+        return JsonUtil.extractStrings(profileJson, "handle", "displayName", "avatar")[0];
+    }
+
+    @Benchmark
+    public String createRecordMap() throws Exception {
+        Map<String, Object> record = Map.of("text", TEXT, "$type", "app.bsky.feed.post", "createdAt", CREATED_AT);
+        Map<String, Object> body = new HashMap<>();
+        body.put("repo", DID);
+        body.put("collection", "app.bsky.feed.post");
+        body.put("record", record);
+        return PLAIN.writeValueAsString(body);
+    }
+
+    @Benchmark
+    public String createRecordTyped() throws Exception {
+        return CREATE_RECORD_WRITER.writeValueAsString(CreateRecordRequest.post(DID, TEXT, CREATED_AT));
+    }
+}
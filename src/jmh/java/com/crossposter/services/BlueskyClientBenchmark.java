@@ -0,0 +1,55 @@
+package com.crossposter.services;
+
+import com.crossposter.models.CreateRecordRequest;
+import com.crossposter.utils.JsonUtil;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access-token claim parsing and createRecord body serialization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlueskyClientBenchmark {
+    private static final ObjectWriter WRITER = JsonUtil.MAPPER.writerFor(CreateRecordRequest.class);
+
+    private final String accessToken = token("{\"scope\":\"atproto transition:generic\",\"sub\":\"did:plc:ewvi7nxzyoun6zhxrhs64oiz\","
+            + "\"iat\":1760000000,\"exp\":1760003600,\"aud\":\"did:web:morel.us-east.host.bsky.network\"}");
+    private final String did = "did:plc:ewvi7nxzyoun6zhxrhs64oiz";
+    private final String text = "Crossposting from the dashboard: release notes are up, thanks everyone who tested the beta!";
+    private final Instant createdAt = Instant.parse("2025-10-01T12:00:00Z");
+
+    @Benchmark
+    public BlueskyClient.TokenClaims parseTokenClaims() throws Exception {
+        return BlueskyClient.parseTokenClaims(accessToken);
+    }
+
+    @Benchmark
+    public String serializeCreateRecordBody() throws Exception {
+        return WRITER.writeValueAsString(BlueskyClient.createRecordBody(did, text, createdAt));
+    }
+
+    private static String token(String payload) {
+        Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+        return b64.encodeToString("{\"typ\":\"at+jwt\",\"alg\":\"ES256K\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + b64.encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                + "." + b64.encodeToString("signature".getBytes(StandardCharsets.UTF_8));
+    }
+}
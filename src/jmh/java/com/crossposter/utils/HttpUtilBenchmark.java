@@ -0,0 +1,43 @@
+package com.crossposter.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Form encoding of a typical PAR request body.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpUtilBenchmark {
+    private final Map<String, String> parParams = new LinkedHashMap<>();
+
+    {
+        parParams.put("response_type", "code");
+        parParams.put("client_id", "https://bcala06.github.io/bluesky-mastodon-crossposter/client-metadata.json");
+        parParams.put("redirect_uri", "http://127.0.0.1:8080/callback");
+        parParams.put("scope", "atproto repo:app.bsky.feed.post?action=create");
+        parParams.put("state", "0b6a5f4e-8f3c-4a0e-9d6a-2b1f0c7e9a11");
+        parParams.put("code_challenge", "E9Melhoa2OwvFrEMTJguCHaoeK1t8URWbuGJSstw-cM");
+        parParams.put("code_challenge_method", "S256");
+    }
+
+    @Benchmark
+    public String formEncode() {
+        return HttpUtil.formEncode(parParams);
+    }
+}
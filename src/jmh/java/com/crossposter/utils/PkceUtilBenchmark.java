@@ -0,0 +1,36 @@
+package com.crossposter.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PKCE verifier generation and S256 challenge derivation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PkceUtilBenchmark {
+    private final String verifier = PkceUtil.generateCodeVerifier();
+
+    @Benchmark
+    public String generateCodeVerifier() {
+        return PkceUtil.generateCodeVerifier();
+    }
+
+    @Benchmark
+    public String generateCodeChallenge() {
+        return PkceUtil.generateCodeChallenge(verifier);
+    }
+}
@@ -0,0 +1,43 @@
+package com.crossposter;
+
+import com.crossposter.services.IngestServer;
+import com.crossposter.services.ServiceRegistry;
+import com.crossposter.utils.MetricsServer;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Headless entry point: no JavaFX or AWT, just the services behind a local HTTP API.
+ * Port and token can be set with -Dcrossposter.daemon.port and -Dcrossposter.daemon.token.
+ * Run with: java -cp crossposter-ui.jar com.crossposter.Daemon
+ */
+public class Daemon {
+
+    public static void main(String[] args) throws Exception {
+        long start = System.nanoTime();
+        // Auth flows print their URL instead of opening a browser
+        System.setProperty("crossposter.headless", "true");
+        System.setProperty("java.awt.headless", "true");
+
+        MetricsServer metricsServer = MetricsServer.startDefault();
+        IngestServer ingestServer = new IngestServer(
+                Integer.getInteger("crossposter.daemon.port", 8787),
+                System.getProperty("crossposter.daemon.token"));
+        ingestServer.start();
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ingestServer.stop();
+            if (metricsServer != null) metricsServer.stop();
+            stopped.countDown();
+        }, "daemon-shutdown"));
+
+        System.out.println("Crossposter daemon started in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+        // Load the services (Jackson, metadata cache, outbox replay) off the startup path;
+        // requests that arrive first simply wait for it
+        Thread.ofVirtual().name("daemon-warmup").start(ServiceRegistry::getOutbox);
+        ServiceRegistry.restoreSessions();
+        stopped.await();
+    }
+}
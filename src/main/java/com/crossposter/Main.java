@@ -1,13 +1,21 @@
 package com.crossposter;
 
 import com.crossposter.controllers.SceneManager;
+import com.crossposter.services.ServiceRegistry;
+import com.crossposter.utils.MetricsServer;
 import javafx.application.Application;
 import javafx.stage.Stage;
 
 public class Main extends Application {
 
+    private MetricsServer metricsServer;
+
     @Override
     public void start(Stage stage) {
+        metricsServer = MetricsServer.startDefault();
+        // Replay the outbox journal and decrypt the saved sessions while the dashboard loads
+        Thread.ofVirtual().name("outbox-open").start(ServiceRegistry::getOutbox);
+        ServiceRegistry.restoreSessions();
         SceneManager.setStage(stage);
 
         // Load the Dashboard screen
@@ -18,6 +26,14 @@ public class Main extends Application {
 
         stage.setTitle("Crossposter UI");
         stage.show();
+
+        // Parse the other screens in the background once the dashboard is up
+        SceneManager.preload("/fxml/bluesky.fxml", "/fxml/mastodon.fxml");
+    }
+
+    @Override
+    public void stop() {
+        if (metricsServer != null) metricsServer.stop();
     }
 
     public static void main(String[] args) {
@@ -46,8 +46,7 @@ public class BlueskyController {
             String pdsOrigin = "https://bsky.social";
             AuthSession session = blueskyClient.startAuth(pdsOrigin);
 
-            ServiceRegistry.setBlueskySession(session);
-            ServiceRegistry.setBlueskyPdsOrigin(session.pdsEndpoint);
+            ServiceRegistry.addBlueskySession(session);
 
             showAlert(Alert.AlertType.INFORMATION, "Authentication successful!", "Logged in as DID: " + session.did());
 
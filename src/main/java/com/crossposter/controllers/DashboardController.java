@@ -1,31 +1,61 @@
 package com.crossposter.controllers;
 
+import com.crossposter.models.Attachment;
+import com.crossposter.models.PostResult;
+import com.crossposter.models.Profile;
 import com.crossposter.services.AuthSession;
 import com.crossposter.services.BlueskyClient;
+import com.crossposter.services.BulkPostPipeline;
+import com.crossposter.services.CrosspostDispatcher;
 import com.crossposter.services.MastodonClient;
+import com.crossposter.services.Outbox;
 import com.crossposter.services.ServiceRegistry;
+import com.crossposter.services.SessionStore;
+import com.crossposter.services.ThreadSplitter;
+import com.crossposter.utils.GraphemeCounter;
+import com.crossposter.utils.RateLimitScheduler;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
+import javafx.stage.FileChooser;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
-public class DashboardController {
+public class DashboardController implements SceneManager.Refreshable {
 
-    private static final int MAX_CHARS = 280;
+    private static final int BULK_CONCURRENCY_PER_TARGET = 4;
 
     private final BlueskyClient blueskyClient = ServiceRegistry.getBlueskyClient();
     private final MastodonClient mastodonClient = ServiceRegistry.getMastodonClient();
+    private final SessionStore sessionStore = ServiceRegistry.getSessionStore();
+    private final BooleanProperty posting = new SimpleBooleanProperty(false);
+    private final Map<String, String> postStatuses = new LinkedHashMap<>();
+    private final List<Attachment> attachments = new ArrayList<>();
+    private final GraphemeCounter graphemeCounter = new GraphemeCounter();
 
     @FXML private Button blueskyButton;
     @FXML private Button mastodonButton;
+    @FXML private Button blueskyAddButton;
+    @FXML private Button mastodonAddButton;
     @FXML private TextArea postContent;
     @FXML private CheckBox blueskyCheck;
     @FXML private CheckBox mastodonCheck;
@@ -33,34 +63,71 @@ public class DashboardController {
     @FXML private Button postButton;
     @FXML private Label blueskyUserLabel;   
     @FXML private Label mastodonUserLabel;  
+    @FXML private Label blueskyStatusLabel;
+    @FXML private Label mastodonStatusLabel;
+    @FXML private Button bulkPostButton;
+    @FXML private Label bulkStatusLabel;
+    @FXML private Label rateLimitLabel;
+    @FXML private Label attachmentsLabel;
+    @FXML private Button clearAttachmentsButton;
 
     @FXML
     public void initialize() {
         updateButtons();
         setupCharacterCountListener();
         updateConnectionLabels(); 
+        setupRateLimitListener();
+        // Accounts saved by the last run appear once the vault has been read
+        ServiceRegistry.restoreSessions().thenRun(() -> Platform.runLater(this::refresh));
 
-        final boolean blueskyConnected = ServiceRegistry.getBlueskySession() != null;
-        final boolean mastodonConnected = ServiceRegistry.getMastodonSession() != null;
-
-        if (blueskyCheck != null) blueskyCheck.setDisable(!blueskyConnected);
-        if (mastodonCheck != null) mastodonCheck.setDisable(!mastodonConnected);
-
+        // The checkboxes are disabled while their platform has no accounts (see updateConnectionLabel)
         if (postButton != null) {
             postButton.disableProperty().bind(Bindings.createBooleanBinding(
                 () -> {
-                    boolean b = (blueskyConnected && blueskyCheck.isSelected());
-                    boolean m = (mastodonConnected && mastodonCheck.isSelected());
-                    return !(b || m);
+                    boolean b = (!blueskyCheck.isDisabled() && blueskyCheck.isSelected());
+                    boolean m = (!mastodonCheck.isDisabled() && mastodonCheck.isSelected());
+                    return posting.get() || !(b || m);
                 },
                 blueskyCheck.selectedProperty(),
-                mastodonCheck.selectedProperty()
+                blueskyCheck.disableProperty(),
+                mastodonCheck.selectedProperty(),
+                mastodonCheck.disableProperty(),
+                posting
             ));
         }
     }
 
+    // The dashboard is kept between visits, so pick up accounts connected on the other screens
+    @Override
+    public void refresh() {
+        updateButtons();
+        updateConnectionLabels();
+        refreshProfiles();
+    }
+
+    // Labels render from the cached handles; stale profiles are re-fetched and relabelled if changed
+    private void refreshProfiles() {
+        for (SessionStore.Account account : sessionStore.all()) {
+            AuthSession session = account.session();
+            CompletableFuture<Profile> refreshed = account.key().platform().equals(CrosspostDispatcher.BLUESKY)
+                    ? blueskyClient.refreshProfile(session)
+                    : mastodonClient.refreshProfile(session);
+            refreshed.thenAccept(profile -> Platform.runLater(() -> {
+                if (profile.handle() != null && !profile.handle().equals(session.handle)) {
+                    session.handle = profile.handle();
+                }
+                updateConnectionLabels();
+            }));
+        }
+    }
+
     private void updateButtons() {
-        if (ServiceRegistry.getBlueskySession() != null) {
+        boolean blueskyConnected = sessionStore.hasAccounts(CrosspostDispatcher.BLUESKY);
+        boolean mastodonConnected = sessionStore.hasAccounts(CrosspostDispatcher.MASTODON);
+        blueskyAddButton.setVisible(blueskyConnected);
+        mastodonAddButton.setVisible(mastodonConnected);
+
+        if (blueskyConnected) {
             blueskyButton.setText("Disconnect");
             blueskyButton.setStyle("-fx-background-color: red; -fx-text-fill: white; -fx-background-radius: 5;");
         } else {
@@ -68,7 +135,7 @@ public class DashboardController {
             blueskyButton.setStyle("-fx-background-color: #556CFF; -fx-text-fill: white; -fx-background-radius: 5;");
         }
 
-        if (ServiceRegistry.getMastodonSession() != null) {
+        if (mastodonConnected) {
             mastodonButton.setText("Disconnect");
             mastodonButton.setStyle("-fx-background-color: red; -fx-text-fill: white; -fx-background-radius: 5;");
         } else {
@@ -78,71 +145,106 @@ public class DashboardController {
     }
 
     private void updateConnectionLabels() {
-        // Bluesky
-        var bs = ServiceRegistry.getBlueskySession();
-        if (blueskyUserLabel != null) {
-            if (bs != null) {
-                try {
-                    String handle = bs.handle(); 
-                    blueskyUserLabel.setText("@" + handle);
-                } catch (Exception e) {
-                    blueskyUserLabel.setText("Connected");
-                }
-            } else {
-                blueskyUserLabel.setText("Not connected");
-            }
-        }
-        if (blueskyCheck != null) {
-            blueskyCheck.setDisable(bs == null);
-            if (bs == null) blueskyCheck.setSelected(false);
-        }
+        updateConnectionLabel(CrosspostDispatcher.BLUESKY, blueskyUserLabel, blueskyCheck);
+        updateConnectionLabel(CrosspostDispatcher.MASTODON, mastodonUserLabel, mastodonCheck);
+    }
 
-        // Mastodon
-        var ms = ServiceRegistry.getMastodonSession();
-        if (mastodonUserLabel != null) {
-            if (ms != null) {
-                try {
-                    String handle = ms.handle();
-                    mastodonUserLabel.setText("@" + handle);
-                } catch (Exception e) {
-                    mastodonUserLabel.setText("Connected");
-                }
+    private void updateConnectionLabel(String platform, Label userLabel, CheckBox check) {
+        List<SessionStore.Account> accounts = sessionStore.byPlatform(platform);
+        if (userLabel != null) {
+            if (accounts.isEmpty()) {
+                userLabel.setText("Not connected");
+                userLabel.setTooltip(null);
             } else {
-                mastodonUserLabel.setText("Not connected");
+                userLabel.setText(accounts.stream().map(SessionStore.Account::label).collect(Collectors.joining(", ")));
+                String names = accounts.stream().map(this::displayName).filter(n -> n != null && !n.isBlank())
+                        .collect(Collectors.joining(", "));
+                userLabel.setTooltip(names.isEmpty() ? null : new Tooltip(names));
             }
         }
-        if (mastodonCheck != null) {
-            mastodonCheck.setDisable(ms == null);
-            if (ms == null) mastodonCheck.setSelected(false);
+        if (check != null) {
+            check.setDisable(accounts.isEmpty());
+            if (accounts.isEmpty()) check.setSelected(false);
         }
     }
 
+    private String displayName(SessionStore.Account account) {
+        Profile profile = account.key().platform().equals(CrosspostDispatcher.BLUESKY)
+                ? blueskyClient.cachedProfile(account.session())
+                : mastodonClient.cachedProfile(account.session());
+        return profile != null ? profile.displayName() : null;
+    }
+
+    // Counts graphemes as the networks do; text over the limit is posted as a thread, not cut off
     private void setupCharacterCountListener() {
         postContent.textProperty().addListener((observable, oldValue, newValue) -> {
-            int currentLength = newValue.length();
-          
-            if (currentLength > MAX_CHARS) {
-                String truncated = newValue.substring(0, MAX_CHARS);
-                postContent.setText(truncated);
-                currentLength = MAX_CHARS; 
-            }
+            graphemeCounter.update(newValue);
+            updateCharacterCount();
+        });
+        blueskyCheck.selectedProperty().addListener((observable, oldValue, newValue) -> updateCharacterCount());
+        mastodonCheck.selectedProperty().addListener((observable, oldValue, newValue) -> updateCharacterCount());
+        updateCharacterCount();
+    }
 
-            charCountLabel.setText(currentLength + " / " + MAX_CHARS);
+    private void updateCharacterCount() {
+        // Measured as posting measures it (URLs weighted, per instance); the target with the least
+        // room left is shown, and the post becomes a thread if any target can't fit it
+        String text = postContent.getText() == null ? "" : postContent.getText();
+        List<ThreadSplitter.Limit> limits = new ArrayList<>();
+        if (blueskyCheck.isSelected()) {
+            limits.add(ThreadSplitter.BLUESKY);
+        }
+        if (mastodonCheck.isSelected()) {
+            // Posts go to every Mastodon account (see handlePost), each held to its instance's limit
+            List<String> instanceUrls = sessionStore.byPlatform(CrosspostDispatcher.MASTODON).stream()
+                    .map(a -> a.session().instanceUrl)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .toList();
+            if (instanceUrls.isEmpty()) {
+                limits.add(ThreadSplitter.MASTODON_DEFAULT);
+            }
+            for (String instanceUrl : instanceUrls) {
+                limits.add(mastodonClient.peekLimit(instanceUrl, () -> Platform.runLater(this::updateCharacterCount)));
+            }
+        }
+        if (limits.isEmpty()) {
+            limits.add(ThreadSplitter.BLUESKY);
+        }
 
-            if (currentLength == MAX_CHARS) {
-                charCountLabel.setStyle("-fx-text-fill: red; -fx-font-size: 13px;");
-            } else {
-                charCountLabel.setStyle("-fx-text-fill: #86868b; -fx-font-size: 13px;");
+        int graphemes = graphemeCounter.count();
+        ThreadSplitter.Limit shown = limits.get(0);
+        boolean thread = false;
+        for (ThreadSplitter.Limit limit : limits) {
+            if (limit.maxGraphemes() - limit.length(text, graphemes) < shown.maxGraphemes() - shown.length(text, graphemes)) {
+                shown = limit;
             }
-        });
+            thread |= !limit.fits(text, graphemes);
+        }
+        int count = shown.length(text, graphemes);
+        int max = shown.maxGraphemes();
+
+        if (thread) {
+            charCountLabel.setText(count + " / " + max + " (thread)");
+            charCountLabel.setStyle("-fx-text-fill: #ff9500; -fx-font-size: 13px;");
+        } else {
+            charCountLabel.setText(count + " / " + max);
+            charCountLabel.setStyle("-fx-text-fill: #86868b; -fx-font-size: 13px;");
+        }
+    }
+
+    private void setupRateLimitListener() {
+        RateLimitScheduler.setWaitListener((host, wait) -> Platform.runLater(() -> {
+            long seconds = Math.max(1, wait.toSeconds());
+            rateLimitLabel.setText("Rate limited by " + host + ", next request in ~" + seconds + "s");
+        }));
     }
 
     @FXML
     public void openBluesky(ActionEvent event) {
-        if (ServiceRegistry.getBlueskySession() != null) {
+        if (sessionStore.hasAccounts(CrosspostDispatcher.BLUESKY)) {
             if (confirmDisconnect("Bluesky")) {
-                ServiceRegistry.setBlueskySession(null);
-                ServiceRegistry.setBlueskyPdsOrigin(null);
+                ServiceRegistry.removeAccounts(CrosspostDispatcher.BLUESKY);
                 System.out.println("[Dashboard] Bluesky disconnected.");
                 updateButtons();
                 updateConnectionLabels();
@@ -155,9 +257,9 @@ public class DashboardController {
 
     @FXML
     public void openMastodon(ActionEvent event) {
-        if (ServiceRegistry.getMastodonSession() != null) {
+        if (sessionStore.hasAccounts(CrosspostDispatcher.MASTODON)) {
             if (confirmDisconnect("Mastodon")) {
-                ServiceRegistry.setMastodonSession(null);
+                ServiceRegistry.removeAccounts(CrosspostDispatcher.MASTODON);
                 System.out.println("[Dashboard] Mastodon disconnected.");
                 updateButtons();
                 updateConnectionLabels();
@@ -168,11 +270,23 @@ public class DashboardController {
         }
     }
 
+    @FXML
+    public void addBlueskyAccount(ActionEvent event) {
+        System.out.println("[Dashboard] Bluesky Add Account clicked");
+        SceneManager.switchScene("/fxml/bluesky.fxml", "Bluesky Connect");
+    }
+
+    @FXML
+    public void addMastodonAccount(ActionEvent event) {
+        System.out.println("[Dashboard] Mastodon Add Account clicked");
+        SceneManager.switchScene("/fxml/mastodon.fxml", "Mastodon Connect");
+    }
+
     private boolean confirmDisconnect(String platform) {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
         alert.setTitle("Confirm Disconnect");
         alert.setHeaderText("Disconnect from " + platform + "?");
-        alert.setContentText("Are you sure you want to disconnect your " + platform + " account?");
+        alert.setContentText("Are you sure you want to disconnect all of your " + platform + " accounts?");
         Optional<ButtonType> result = alert.showAndWait();
         return result.isPresent() && result.get() == ButtonType.OK;
     }
@@ -188,58 +302,168 @@ public class DashboardController {
         System.out.println("Bluesky: " + postToBluesky);
         System.out.println("Mastodon: " + postToMastodon);
 
-        boolean allSuccess = true;
-
+        // Fan out to every connected account of each checked platform
+        List<SessionStore.AccountKey> keys = new ArrayList<>();
         if (postToBluesky) {
-            try {
-                AuthSession session = ServiceRegistry.getBlueskySession();
-                if (session == null || session.accessToken == null) {
-                    showAlert(Alert.AlertType.WARNING, "Bluesky Not Authenticated",
-                            "Please authenticate with Bluesky first.");
-                    allSuccess = false;
+            sessionStore.byPlatform(CrosspostDispatcher.BLUESKY).forEach(a -> keys.add(a.key()));
+        }
+        if (postToMastodon) {
+            sessionStore.byPlatform(CrosspostDispatcher.MASTODON).forEach(a -> keys.add(a.key()));
+        }
+        sessionStore.select(keys);
+
+        List<String> targets = sessionStore.selected().stream().map(a -> a.key().id()).toList();
+        if (targets.isEmpty()) {
+            showAlert(Alert.AlertType.WARNING, "Not Authenticated",
+                    "Please connect an account for the selected platforms first.");
+            return;
+        }
+
+        // Journal the post before anything touches the network, so it survives a crash mid-post
+        List<Attachment> media = List.copyOf(attachments);
+        Map<String, CompletableFuture<PostResult>> results;
+        try {
+            results = ServiceRegistry.getOutbox().submit(content, media, targets);
+        } catch (Exception e) {
+            e.printStackTrace();
+            showAlert(Alert.AlertType.ERROR, "Could Not Queue Post", String.valueOf(e.getMessage()));
+            return;
+        }
+
+        // The outbox has it now and retries it on its own, so posting it again would post it twice
+        postContent.clear();
+        clearAttachments();
+        posting.set(true);
+        AtomicBoolean allSuccess = new AtomicBoolean(true);
+        postStatuses.clear();
+
+        results.forEach((name, future) -> {
+            setPostStatus(name, "Posting...", "#86868b");
+            future.whenComplete((result, error) -> Platform.runLater(() -> {
+                if (error == null) {
+                    System.out.println(name + " post result: " + result);
+                    setPostStatus(name, "Posted", "#34c759");
                 } else {
-                    String pdsOrigin = ServiceRegistry.getBlueskyPdsOrigin();
-                    if (pdsOrigin == null) {
-                        showAlert(Alert.AlertType.WARNING, "Bluesky PDS Origin Missing",
-                                "Bluesky session lacks PDS origin. Please re-authenticate.");
-                        allSuccess = false;
-                    } else {
-                        Map<String, Object> result = blueskyClient.createPost(session, pdsOrigin, content);
-                        System.out.println("Bluesky post result: " + result);
-                        showAlert(Alert.AlertType.INFORMATION, "Success", "Posted to Bluesky successfully!");
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof Outbox.Queued) {
+                        System.out.println(name + " post queued: " + cause.getMessage());
+                        setPostStatus(name, "Queued, retrying", "#ff9500");
+                        return;
                     }
+                    System.err.println("Error posting to " + name + ": " + cause.getMessage());
+                    cause.printStackTrace();
+                    allSuccess.set(false);
+                    setPostStatus(name, "Failed", "red");
+                    showAlert(Alert.AlertType.ERROR, "Error Posting to " + accountLabel(name), String.valueOf(cause.getMessage()));
                 }
-            } catch (Exception e) {
-                System.err.println("Error posting to Bluesky: " + e.getMessage());
-                e.printStackTrace();
-                showAlert(Alert.AlertType.ERROR, "Error Posting to Bluesky", e.getMessage());
-                allSuccess = false;
+            }));
+        });
+
+        CrosspostDispatcher.allSettled(results).thenRun(() -> Platform.runLater(() -> {
+            posting.set(false);
+            rateLimitLabel.setText("");
+            // A rejected post is given back to edit, unless something new was written meanwhile
+            if (!allSuccess.get() && postContent.getText().isEmpty() && attachments.isEmpty()) {
+                postContent.setText(content);
+                restoreAttachments(media);
             }
+        }));
+    }
+
+    @FXML
+    public void handleAttach() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Attach images or a video");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Images and video",
+                "*.jpg", "*.jpeg", "*.png", "*.gif", "*.webp", "*.mp4", "*.mov", "*.webm"));
+        List<File> files = chooser.showOpenMultipleDialog(postContent.getScene().getWindow());
+        if (files == null || files.isEmpty()) {
+            return;
         }
 
-        if (postToMastodon) {
+        attachments.clear();
+        files.forEach(f -> attachments.add(new Attachment(f.getAbsolutePath(), null)));
+        attachmentsLabel.setText(files.stream().map(File::getName).collect(Collectors.joining(", ")));
+        clearAttachmentsButton.setVisible(true);
+    }
+
+    private void restoreAttachments(List<Attachment> media) {
+        if (media.isEmpty()) {
+            return;
+        }
+        attachments.addAll(media);
+        attachmentsLabel.setText(media.stream().map(a -> new File(a.path()).getName()).collect(Collectors.joining(", ")));
+        clearAttachmentsButton.setVisible(true);
+    }
+
+    @FXML
+    public void clearAttachments() {
+        attachments.clear();
+        attachmentsLabel.setText("");
+        clearAttachmentsButton.setVisible(false);
+    }
+
+    @FXML
+    public void handleBulkPost() {
+        List<String> targets = new ArrayList<>();
+        if (blueskyCheck.isSelected()) sessionStore.byPlatform(CrosspostDispatcher.BLUESKY).forEach(a -> targets.add(a.key().id()));
+        if (mastodonCheck.isSelected()) sessionStore.byPlatform(CrosspostDispatcher.MASTODON).forEach(a -> targets.add(a.key().id()));
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Select a JSONL file of posts");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON Lines", "*.jsonl", "*.ndjson"));
+        File file = chooser.showOpenDialog(postContent.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        bulkPostButton.setDisable(true);
+        bulkStatusLabel.setText("Starting...");
+        BulkPostPipeline pipeline = new BulkPostPipeline(ServiceRegistry::resolveTarget, BULK_CONCURRENCY_PER_TARGET);
+
+        Thread.ofVirtual().name("bulk-post").start(() -> {
             try {
-                AuthSession session = ServiceRegistry.getMastodonSession();
-                if (session == null || session.accessToken == null || session.instanceUrl == null) {
-                    showAlert(Alert.AlertType.WARNING, "Mastodon Not Authenticated",
-                            "Please authenticate with Mastodon first.");
-                    allSuccess = false;
-                } else {
-                    Map<String, Object> result = mastodonClient.postStatus(session, content);
-                    System.out.println("Mastodon post result: " + result);
-                    showAlert(Alert.AlertType.INFORMATION, "Success", "Posted to Mastodon successfully!");
-                }
+                BulkPostPipeline.Summary summary = pipeline.run(file.toPath(), targets, progress ->
+                        Platform.runLater(() -> bulkStatusLabel.setText(
+                                progress.posted() + " posted, " + progress.failed() + " failed")));
+                Platform.runLater(() -> {
+                    bulkStatusLabel.setText("Done: " + summary.posted() + " posted, " + summary.failed()
+                            + " failed, " + summary.skipped() + " already done");
+                    bulkPostButton.setDisable(false);
+                });
             } catch (Exception e) {
-                System.err.println("Error posting to Mastodon: " + e.getMessage());
                 e.printStackTrace();
-                showAlert(Alert.AlertType.ERROR, "Error Posting to Mastodon", e.getMessage());
-                allSuccess = false;
+                Platform.runLater(() -> {
+                    bulkStatusLabel.setText("Stopped");
+                    bulkPostButton.setDisable(false);
+                    showAlert(Alert.AlertType.ERROR, "Bulk Post Failed", String.valueOf(e.getMessage()));
+                });
             }
-        }
+        });
+    }
 
-        if (allSuccess && (postToBluesky || postToMastodon)) {
-            postContent.clear();
-        }
+    // Each platform label shows the status of every account of that platform being posted to
+    private void setPostStatus(String target, String text, String color) {
+        postStatuses.put(target, text);
+        String platform = SessionStore.AccountKey.parse(target).platform();
+        Label label = switch (platform) {
+            case CrosspostDispatcher.BLUESKY -> blueskyStatusLabel;
+            case CrosspostDispatcher.MASTODON -> mastodonStatusLabel;
+            default -> null;
+        };
+        if (label == null) return;
+
+        List<String> forPlatform = postStatuses.entrySet().stream()
+                .filter(e -> SessionStore.AccountKey.parse(e.getKey()).platform().equals(platform))
+                .map(e -> accountLabel(e.getKey()) + ": " + e.getValue())
+                .toList();
+        label.setText(forPlatform.size() == 1 ? text : String.join(", ", forPlatform));
+        label.setStyle("-fx-font-size: 13px; -fx-text-fill: " + color + ";");
+    }
+
+    private String accountLabel(String target) {
+        SessionStore.Account account = sessionStore.get(SessionStore.AccountKey.parse(target));
+        return account != null ? account.label() : target;
     }
 
     private void showAlert(Alert.AlertType type, String title, String message) {
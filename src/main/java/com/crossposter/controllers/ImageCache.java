@@ -0,0 +1,83 @@
+package com.crossposter.controllers;
+
+import javafx.scene.image.Image;
+import javafx.util.Builder;
+import javafx.util.BuilderFactory;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares decoded images across screens, so a logo used by several FXML files is read and decoded
+ * once per run.
+ */
+public final class ImageCache {
+
+    private static final Map<String, Image> IMAGES = new ConcurrentHashMap<>();
+
+    private ImageCache() {}
+
+    /**
+     * Returns the image for a URL, decoding it on first use. Safe to call off the FX thread.
+     */
+    public static Image get(String url) {
+        return IMAGES.computeIfAbsent(url, Image::new);
+    }
+
+    /**
+     * Returns the image for a classpath resource (e.g. /images/BMClogo.png).
+     */
+    public static Image resource(String path) {
+        var url = ImageCache.class.getResource(path);
+        if (url == null) throw new IllegalArgumentException("No such image: " + path);
+        return get(url.toExternalForm());
+    }
+
+    /**
+     * Wraps an FXMLLoader builder factory so {@code <Image url="..."/>} elements come from this cache
+     * instead of decoding the file again on every load.
+     */
+    static BuilderFactory builderFactory(BuilderFactory fallback) {
+        return type -> type == Image.class ? new CachedImageBuilder() : fallback.getBuilder(type);
+    }
+
+    // FXMLLoader sets builder properties through the Map interface, then calls build()
+    private static final class CachedImageBuilder extends AbstractMap<String, Object> implements Builder<Image> {
+        private final Map<String, Object> properties = new HashMap<>();
+
+        @Override
+        public Object put(String key, Object value) {
+            return properties.put(key, value);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return properties.entrySet();
+        }
+
+        @Override
+        public Image build() {
+            Object url = properties.get("url");
+            if (url == null || properties.size() > 1) {
+                // Sized or background-loaded images aren't shared; build them the way FXML would
+                return new Image(String.valueOf(url),
+                        number("requestedWidth"), number("requestedHeight"),
+                        bool("preserveRatio", false), bool("smooth", true), bool("backgroundLoading", false));
+            }
+            return ImageCache.get(url.toString());
+        }
+
+        private double number(String key) {
+            Object value = properties.get(key);
+            return value == null ? 0 : Double.parseDouble(value.toString());
+        }
+
+        private boolean bool(String key, boolean defaultValue) {
+            Object value = properties.get(key);
+            return value == null ? defaultValue : Boolean.parseBoolean(value.toString());
+        }
+    }
+}
@@ -10,13 +10,18 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseEvent;
 
-public class MastodonController {
+public class MastodonController implements SceneManager.Refreshable {
 
     private final MastodonClient mastodonClient = ServiceRegistry.getMastodonClient();
 
     @FXML
     private TextField mastodonHandleField;
 
+    @Override
+    public void refresh() {
+        mastodonHandleField.clear();
+    }
+
     // Navigation
     @FXML
     private void openDashboard(MouseEvent event) {
@@ -49,7 +54,7 @@ public class MastodonController {
 
         try {
             AuthSession session = mastodonClient.startAuth(userInput);
-            ServiceRegistry.setMastodonSession(session);
+            ServiceRegistry.addMastodonSession(session);
 
             showAlert(Alert.AlertType.INFORMATION, "Authentication successful!",
                     "Logged in to instance: " + session.instanceUrl);
@@ -1,13 +1,37 @@
 package com.crossposter.controllers;
 
 import javafx.fxml.FXMLLoader;
+import javafx.fxml.JavaFXBuilderFactory;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Navigates between screens. Each FXML file is parsed once; its root and controller are kept and
+ * reused, and the stage keeps a single Scene whose root is swapped, so switching screens doesn't
+ * rebuild anything or reset the window size.
+ */
 public class SceneManager {
+
+    /**
+     * Implemented by controllers whose screen shows state that can change while it's hidden
+     * (connected accounts, form fields). Called on the FX thread each time the screen is shown.
+     */
+    public interface Refreshable {
+        void refresh();
+    }
+
+    private record View(Parent root, Object controller) {}
+
+    private static final Map<String, CompletableFuture<View>> views = new ConcurrentHashMap<>();
+    private static final JavaFXBuilderFactory FX_BUILDERS = new JavaFXBuilderFactory();
+
     private static Stage stage;
 
     public static void setStage(Stage primaryStage) {
@@ -15,29 +39,77 @@ public class SceneManager {
     }
 
     public static void switchScene(String fxmlPath, String title) {
+        View view;
         try {
-            // Save current stage size and state
-            double width = stage.getWidth();
-            double height = stage.getHeight();
-            boolean maximized = stage.isMaximized();
-
-            FXMLLoader loader = new FXMLLoader(SceneManager.class.getResource(fxmlPath));
-            Parent root = loader.load();
-            Scene scene = new Scene(root);
-
-            stage.setScene(scene);
-            stage.setTitle(title);
-
-            // Restore window size/state
-            if (maximized) {
-                stage.setMaximized(true);
-            } else {
-                stage.setWidth(width);
-                stage.setHeight(height);
+            view = view(fxmlPath);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Scene scene = stage.getScene();
+        if (scene == null) {
+            stage.setScene(new Scene(view.root()));
+        } else if (scene.getRoot() != view.root()) {
+            scene.setRoot(view.root());
+        }
+        stage.setTitle(title);
+
+        if (view.controller() instanceof Refreshable refreshable) {
+            refreshable.refresh();
+        }
+    }
+
+    /**
+     * Parses screens on a background thread so the first visit to them doesn't have to. Screens
+     * that fail to load are logged and loaded again (reporting the error) when navigated to.
+     */
+    public static void preload(String... fxmlPaths) {
+        Thread.ofVirtual().name("scene-preload").start(() -> {
+            for (String fxmlPath : fxmlPaths) {
+                try {
+                    view(fxmlPath);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("[SceneManager] Could not preload " + fxmlPath + ": " + e.getMessage());
+                }
             }
+        });
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Returns the cached view, waiting for a preload already in progress instead of parsing twice
+    private static View view(String fxmlPath) throws IOException {
+        CompletableFuture<View> loading = new CompletableFuture<>();
+        CompletableFuture<View> existing = views.putIfAbsent(fxmlPath, loading);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                // The other load failed and has been evicted; try again here so the caller sees why
+                return view(fxmlPath);
+            }
+        }
+
+        try {
+            View view = load(fxmlPath);
+            loading.complete(view);
+            return view;
+        } catch (IOException | RuntimeException e) {
+            views.remove(fxmlPath, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // Building the node graph off the FX thread is fine as long as it isn't attached to a shown Scene
+    private static View load(String fxmlPath) throws IOException {
+        var location = SceneManager.class.getResource(fxmlPath);
+        if (location == null) {
+            throw new IOException("No such screen: " + fxmlPath);
         }
+        long start = System.nanoTime();
+        FXMLLoader loader = new FXMLLoader(location, null, ImageCache.builderFactory(FX_BUILDERS));
+        Parent root = loader.load();
+        System.out.println("[SceneManager] Loaded " + fxmlPath + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new View(root, loader.getController());
     }
 }
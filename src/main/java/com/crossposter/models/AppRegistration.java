@@ -0,0 +1,10 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Mastodon POST /api/v1/apps response.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record AppRegistration(String clientId, String clientSecret) {}
@@ -0,0 +1,21 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Body of com.atproto.repo.applyWrites: record writes to one repo, committed atomically.
+ */
+public record ApplyWritesRequest(String repo, List<Create> writes) {
+
+    public static final String CREATE = "com.atproto.repo.applyWrites#create";
+
+    public record Create(@JsonProperty("$type") String type, String collection, String rkey, Object value) {
+
+        // The record of a createRecord/putRecord body, as a write
+        public static Create of(CreateRecordRequest record) {
+            return new Create(CREATE, record.collection(), record.rkey(), record.record());
+        }
+    }
+}
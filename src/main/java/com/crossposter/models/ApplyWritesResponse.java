@@ -0,0 +1,9 @@
+package com.crossposter.models;
+
+import java.util.List;
+
+/**
+ * com.atproto.repo.applyWrites response: one result per write, in order. Older PDS versions
+ * return no results.
+ */
+public record ApplyWritesResponse(List<CreateRecordResponse> results) {}
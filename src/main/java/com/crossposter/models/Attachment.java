@@ -0,0 +1,8 @@
+package com.crossposter.models;
+
+/**
+ * A local media file attached to a post, as given by the user (and journaled with the post).
+ * @param path file path
+ * @param alt alt text, or null
+ */
+public record Attachment(String path, String alt) {}
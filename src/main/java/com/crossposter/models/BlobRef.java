@@ -0,0 +1,16 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An uploaded Bluesky blob, as returned by com.atproto.repo.uploadBlob and embedded in records.
+ * @param ref the blob's CID
+ */
+public record BlobRef(@JsonProperty("$type") String type, Link ref, String mimeType, long size) {
+
+    public record Link(@JsonProperty("$link") String link) {}
+
+    public String cid() {
+        return ref == null ? null : ref.link();
+    }
+}
@@ -0,0 +1,38 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Body of com.atproto.repo.createRecord for an app.bsky.feed.post record, or of
+ * com.atproto.repo.putRecord when it names the record key.
+ */
+public record CreateRecordRequest(String repo, String collection,
+                                  @JsonInclude(JsonInclude.Include.NON_NULL) String rkey,
+                                  PostRecord record) {
+
+    public static final String POST_COLLECTION = "app.bsky.feed.post";
+
+    public record PostRecord(@JsonProperty("$type") String type, String text, String createdAt,
+                             @JsonInclude(JsonInclude.Include.NON_EMPTY) List<Facet> facets,
+                             @JsonInclude(JsonInclude.Include.NON_NULL) PostEmbed embed,
+                             @JsonInclude(JsonInclude.Include.NON_NULL) ReplyRef reply) {}
+
+    public static CreateRecordRequest post(String did, String text, String createdAt) {
+        return post(did, text, createdAt, List.of(), null, null);
+    }
+
+    public static CreateRecordRequest post(String did, String text, String createdAt, List<Facet> facets,
+                                           PostEmbed embed, ReplyRef reply) {
+        return new CreateRecordRequest(did, POST_COLLECTION, null, new PostRecord(POST_COLLECTION, text, createdAt, facets, embed, reply));
+    }
+
+    /**
+     * The same record under a chosen key, for putRecord.
+     */
+    public CreateRecordRequest withRkey(String rkey) {
+        return new CreateRecordRequest(repo, collection, rkey, record);
+    }
+}
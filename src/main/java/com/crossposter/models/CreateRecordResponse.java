@@ -0,0 +1,6 @@
+package com.crossposter.models;
+
+/**
+ * com.atproto.repo.createRecord response: the new record's at:// URI and content hash.
+ */
+public record CreateRecordResponse(String uri, String cid) {}
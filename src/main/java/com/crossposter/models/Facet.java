@@ -0,0 +1,38 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * An app.bsky.richtext.facet: a range of the post text (in UTF-8 bytes) that is a link, mention or tag.
+ */
+public record Facet(Index index, List<Feature> features) {
+
+    public static final String LINK = "app.bsky.richtext.facet#link";
+    public static final String MENTION = "app.bsky.richtext.facet#mention";
+    public static final String TAG = "app.bsky.richtext.facet#tag";
+
+    // Offsets into the UTF-8 encoding of the text; byteEnd is exclusive
+    public record Index(int byteStart, int byteEnd) {}
+
+    public sealed interface Feature {}
+
+    public record Link(@JsonProperty("$type") String type, String uri) implements Feature {}
+
+    public record Mention(@JsonProperty("$type") String type, String did) implements Feature {}
+
+    public record Tag(@JsonProperty("$type") String type, String tag) implements Feature {}
+
+    public static Facet link(int byteStart, int byteEnd, String uri) {
+        return new Facet(new Index(byteStart, byteEnd), List.of(new Link(LINK, uri)));
+    }
+
+    public static Facet mention(int byteStart, int byteEnd, String did) {
+        return new Facet(new Index(byteStart, byteEnd), List.of(new Mention(MENTION, did)));
+    }
+
+    public static Facet tag(int byteStart, int byteEnd, String tag) {
+        return new Facet(new Index(byteStart, byteEnd), List.of(new Tag(TAG, tag)));
+    }
+}
@@ -0,0 +1,15 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * The part of a Mastodon GET /api/v2/instance response we use: the instance's status limits.
+ */
+public record Instance(Configuration configuration) {
+
+    public record Configuration(Statuses statuses) {}
+
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+    public record Statuses(Integer maxCharacters, Integer charactersReservedPerUrl) {}
+}
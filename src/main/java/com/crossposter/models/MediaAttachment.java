@@ -0,0 +1,7 @@
+package com.crossposter.models;
+
+/**
+ * The fields of a Mastodon media attachment we use. {@code url} stays null until the server has
+ * finished processing the upload.
+ */
+public record MediaAttachment(String id, String type, String url) {}
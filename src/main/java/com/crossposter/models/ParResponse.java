@@ -0,0 +1,10 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Pushed authorization request (PAR) response.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ParResponse(String requestUri, Long expiresIn) {}
@@ -0,0 +1,30 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The embed of an app.bsky.feed.post record. A post carries up to four images or one video.
+ */
+public sealed interface PostEmbed {
+
+    String IMAGES = "app.bsky.embed.images";
+    String VIDEO = "app.bsky.embed.video";
+
+    record Images(@JsonProperty("$type") String type, List<Image> images) implements PostEmbed {}
+
+    record Image(String alt, BlobRef image) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Video(@JsonProperty("$type") String type, BlobRef video, String alt) implements PostEmbed {}
+
+    static PostEmbed images(List<Image> images) {
+        return new Images(IMAGES, images);
+    }
+
+    static PostEmbed video(BlobRef video, String alt) {
+        return new Video(VIDEO, video, alt);
+    }
+}
@@ -0,0 +1,15 @@
+package com.crossposter.models;
+
+/**
+ * Outcome of a successful post on one platform.
+ * @param id Bluesky record CID or Mastodon status id
+ * @param uri at:// URI on Bluesky, ActivityPub URI on Mastodon
+ * @param url web URL, when the platform returns one
+ */
+public record PostResult(String id, String uri, String url) {
+
+    // Stable reference to the post, as recorded in the outbox journal and bulk reports
+    public String ref() {
+        return uri != null ? uri : id;
+    }
+}
@@ -0,0 +1,8 @@
+package com.crossposter.models;
+
+/**
+ * The account fields shown in the UI. Filled by streaming extraction from a Bluesky
+ * getProfile or Mastodon verify_credentials response.
+ * @param handle Bluesky handle, or Mastodon acct
+ */
+public record Profile(String handle, String displayName, String avatar) {}
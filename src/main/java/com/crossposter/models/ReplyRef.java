@@ -0,0 +1,15 @@
+package com.crossposter.models;
+
+/**
+ * The reply field of an app.bsky.feed.post record: the thread's first post and the post replied to.
+ */
+public record ReplyRef(StrongRef root, StrongRef parent) {
+
+    // com.atproto.repo.strongRef: a record pinned to one version by its CID
+    public record StrongRef(String uri, String cid) {
+
+        public static StrongRef of(PostResult post) {
+            return new StrongRef(post.uri(), post.id());
+        }
+    }
+}
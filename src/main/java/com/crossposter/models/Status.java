@@ -0,0 +1,10 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * The fields of a Mastodon status we use; the rest of the (large) payload is skipped while parsing.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record Status(String id, String uri, String url, String createdAt) {}
@@ -0,0 +1,21 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Body of a Mastodon POST /api/v1/statuses call.
+ * @param visibility "public", "unlisted", "private" or "direct"
+ * @param mediaIds ids of uploaded media to attach, or null
+ * @param inReplyToId id of the status this one replies to, or null
+ */
+public record StatusRequest(String status, String visibility,
+                            @JsonProperty("media_ids") @JsonInclude(JsonInclude.Include.NON_EMPTY) List<String> mediaIds,
+                            @JsonProperty("in_reply_to_id") @JsonInclude(JsonInclude.Include.NON_NULL) String inReplyToId) {
+
+    public StatusRequest(String status, String visibility) {
+        this(status, visibility, null, null);
+    }
+}
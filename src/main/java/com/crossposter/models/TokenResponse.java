@@ -0,0 +1,11 @@
+package com.crossposter.models;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * OAuth token endpoint response (authorization_code and refresh_token grants, both platforms).
+ * expiresIn is null when the server issues non-expiring tokens.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record TokenResponse(String accessToken, String refreshToken, String tokenType, Long expiresIn, String scope, String sub) {}
@@ -0,0 +1,6 @@
+package com.crossposter.models;
+
+/**
+ * com.atproto.repo.uploadBlob response.
+ */
+public record UploadBlobResponse(BlobRef blob) {}
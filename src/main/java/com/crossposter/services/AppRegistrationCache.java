@@ -0,0 +1,131 @@
+package com.crossposter.services;
+
+import com.crossposter.models.AppRegistration;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.Metrics;
+import com.crossposter.utils.StorageUtil;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the client_id/client_secret this app registered on each Mastodon instance, so the app is
+ * registered once per instance rather than once per launch. Concurrent logins to an instance share
+ * one registration, and credentials the instance no longer accepts can be swapped for a new one
+ * with {@link #replace}. The registrations are persisted to the local data directory, readable only
+ * by the owner.
+ */
+public class AppRegistrationCache {
+    private static final TypeReference<Map<String, AppRegistration>> REGISTRATIONS = new TypeReference<>() {};
+    private static final ObjectReader REGISTRATIONS_READER = JsonUtil.MAPPER.readerFor(REGISTRATIONS);
+    private static final ObjectWriter REGISTRATIONS_WRITER = JsonUtil.MAPPER.writerFor(REGISTRATIONS);
+
+    /**
+     * Registers the app on an instance (POST /api/v1/apps).
+     */
+    @FunctionalInterface
+    public interface Registrar {
+        AppRegistration register(String instanceUrl) throws Exception;
+    }
+
+    private final Path file;
+    private final Map<String, AppRegistration> registrations = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<AppRegistration>> inFlight = new ConcurrentHashMap<>();
+
+    public AppRegistrationCache() {
+        this(StorageUtil.dataFile("mastodon-apps.json"));
+    }
+
+    public AppRegistrationCache(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @return the instance's registration, or null if the app was never registered there
+     */
+    public AppRegistration peek(String instanceUrl) {
+        return registrations.get(instanceUrl);
+    }
+
+    /**
+     * Returns the instance's registration, registering the app first if needed. Concurrent calls
+     * for the same instance wait for a single registration.
+     */
+    public AppRegistration get(String instanceUrl, Registrar registrar) throws Exception {
+        AppRegistration cached = registrations.get(instanceUrl);
+        if (cached != null) {
+            Metrics.increment("crossposter_app_registration_cache", "result", "hit");
+            return cached;
+        }
+        return register(instanceUrl, registrar);
+    }
+
+    /**
+     * Drops credentials the instance rejected and registers again. When several callers find the
+     * same credentials rejected, only the first registers; the others get its result.
+     * @param rejected the credentials that were rejected
+     */
+    public AppRegistration replace(String instanceUrl, AppRegistration rejected, Registrar registrar) throws Exception {
+        if (registrations.remove(instanceUrl, rejected)) {
+            System.out.println("App registration on " + instanceUrl + " is no longer valid; registering again");
+            save();
+        }
+        return get(instanceUrl, registrar);
+    }
+
+    private AppRegistration register(String instanceUrl, Registrar registrar) throws Exception {
+        CompletableFuture<AppRegistration> created = new CompletableFuture<>();
+        CompletableFuture<AppRegistration> existing = inFlight.putIfAbsent(instanceUrl, created);
+        if (existing == null) {
+            Metrics.increment("crossposter_app_registration_cache", "result", "miss");
+            try {
+                // Re-check: a registration may have completed between the lookup and claiming the slot
+                AppRegistration registration = registrations.get(instanceUrl);
+                if (registration == null) {
+                    registration = registrar.register(instanceUrl);
+                    registrations.put(instanceUrl, registration);
+                    save();
+                }
+                created.complete(registration);
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                inFlight.remove(instanceUrl, created);
+            }
+            existing = created;
+        }
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            registrations.putAll(REGISTRATIONS_READER.<Map<String, AppRegistration>>readValue(file.toFile()));
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable app registrations " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            StorageUtil.writePrivately(file, REGISTRATIONS_WRITER.writeValueAsBytes(new HashMap<>(registrations)));
+        } catch (IOException e) {
+            System.out.println("Could not persist app registrations: " + e.getMessage());
+        }
+    }
+}
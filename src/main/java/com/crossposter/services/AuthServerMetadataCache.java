@@ -0,0 +1,159 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.HttpUtil;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.StorageUtil;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caches OAuth authorization-server metadata ({@code /.well-known/oauth-authorization-server})
+ * per origin. Entries honor {@code Cache-Control: max-age} (falling back to a configurable TTL)
+ * and are revalidated with {@code If-None-Match} in the background once stale, so callers
+ * on the request path only wait when an origin has never been seen before.
+ * The cache is persisted to the local data directory and survives restarts.
+ */
+public class AuthServerMetadataCache {
+    private static final TypeReference<Map<String, Entry>> ENTRIES = new TypeReference<>() {};
+    private static final ObjectReader ENTRIES_READER = JsonUtil.MAPPER.readerFor(ENTRIES);
+    private static final ObjectWriter ENTRIES_WRITER = JsonUtil.MAPPER.writerFor(ENTRIES);
+    private static final ObjectReader METADATA_READER = JsonUtil.MAPPER.readerFor(Map.class);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    public record Entry(Map<String, Object> metadata, String etag, long expiresAt) {}
+
+    private final Duration defaultTtl;
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    public AuthServerMetadataCache() {
+        this(Duration.ofSeconds(Long.getLong("crossposter.oauth.metadataTtlSeconds", 3600)),
+                StorageUtil.dataFile("oauth-metadata.json"));
+    }
+
+    public AuthServerMetadataCache(Duration defaultTtl, Path file) {
+        this.defaultTtl = defaultTtl;
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Returns the metadata for the origin. Fresh entries are returned immediately; stale entries
+     * are returned immediately and revalidated in the background; unknown origins are fetched.
+     * @param origin issuer or PDS origin (e.g. https://bsky.social)
+     */
+    public CompletableFuture<Map<String, Object>> getAsync(String origin) {
+        Entry cached = entries.get(origin);
+        if (cached != null) {
+            if (System.currentTimeMillis() >= cached.expiresAt()) {
+                fetch(origin, cached);
+            }
+            return CompletableFuture.completedFuture(cached.metadata());
+        }
+        return fetch(origin, null).thenApply(Entry::metadata);
+    }
+
+    public Map<String, Object> get(String origin) throws IOException {
+        try {
+            return getAsync(origin).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Failed to load authorization server metadata for " + origin + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private CompletableFuture<Entry> fetch(String origin, Entry previous) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(origin, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        if (previous != null && previous.etag() != null) {
+            headers.put("If-None-Match", previous.etag());
+        }
+
+        HttpUtil.<Map<String, Object>>getJsonAsync(origin + "/.well-known/oauth-authorization-server", headers, METADATA_READER::readValue)
+                .thenApply(response -> toEntry(origin, response, previous))
+                .whenComplete((entry, error) -> {
+                    inFlight.remove(origin, created);
+                    if (error != null) {
+                        System.out.println("Metadata request failed for " + origin + ": " + error.getMessage());
+                        created.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    } else {
+                        created.complete(entry);
+                    }
+                });
+        return created;
+    }
+
+    private Entry toEntry(String origin, HttpResponse<HttpUtil.JsonBody<Map<String, Object>>> response, Entry previous) {
+        long expiresAt = System.currentTimeMillis() + ttlOf(response).toMillis();
+        Entry entry;
+        if (response.statusCode() == 304 && previous != null) {
+            entry = new Entry(previous.metadata(), previous.etag(), expiresAt);
+        } else {
+            try {
+                Map<String, Object> metadata = response.body().get();
+                String etag = response.headers().firstValue("ETag").orElse(null);
+                entry = new Entry(metadata, etag, expiresAt);
+            } catch (IOException e) {
+                throw new CompletionException(new IOException("Metadata request failed: " + e.getMessage(), e));
+            }
+        }
+
+        entries.put(origin, entry);
+        // The refresh path looks metadata up by issuer, so index the entry under it too
+        Object issuer = entry.metadata().get("issuer");
+        if (issuer instanceof String iss && !iss.equals(origin)) {
+            entries.put(iss, entry);
+        }
+        save();
+        return entry;
+    }
+
+    private Duration ttlOf(HttpResponse<?> response) {
+        String cacheControl = response.headers().firstValue("Cache-Control").orElse("").toLowerCase();
+        if (cacheControl.contains("no-store") || cacheControl.contains("no-cache")) {
+            return Duration.ZERO;
+        }
+        Matcher m = MAX_AGE.matcher(cacheControl);
+        return m.find() ? Duration.ofSeconds(Long.parseLong(m.group(1))) : defaultTtl;
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            entries.putAll(ENTRIES_READER.<Map<String, Entry>>readValue(file.toFile()));
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable metadata cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            StorageUtil.writeAtomically(file, ENTRIES_WRITER.writeValueAsBytes(new HashMap<>(entries)));
+        } catch (IOException e) {
+            System.out.println("Could not persist metadata cache: " + e.getMessage());
+        }
+    }
+}
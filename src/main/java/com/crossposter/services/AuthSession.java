@@ -1,15 +1,23 @@
 package com.crossposter.services;
 
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class AuthSession {
     public final String codeVerifier;
-    public String instanceUrl;
-    public String issuer;
-    public String pdsEndpoint; // change for bluesky poster
-    public String dpopNonce;
-    public String accessToken;
-    public String refreshToken;
-    public String did;
-    public String handle;
+    // Volatile: written on the UI and token refresh threads, read by the dispatcher's virtual threads
+    public volatile String instanceUrl;
+    public volatile String issuer;
+    public volatile String pdsEndpoint; // change for bluesky poster
+    public volatile String accessToken;
+    public volatile String refreshToken;
+    public volatile String did;
+    public volatile String handle;
+    public volatile String scope; // as granted by the server; null if it didn't say
+    public volatile Instant issuedAt;  // null if the server didn't say
+    public volatile Instant expiresAt; // null if the token doesn't expire
+    // Held while the tokens are refreshed; a lock rather than a monitor, as the refresh blocks on HTTP
+    final ReentrantLock refreshLock = new ReentrantLock();
 
 
     public AuthSession(String codeVerifier) {
@@ -1,13 +1,33 @@
 package com.crossposter.services;
 
+import com.crossposter.models.ApplyWritesRequest;
+import com.crossposter.models.ApplyWritesResponse;
+import com.crossposter.models.BlobRef;
+import com.crossposter.models.CreateRecordRequest;
+import com.crossposter.models.CreateRecordResponse;
+import com.crossposter.models.Facet;
+import com.crossposter.models.ParResponse;
+import com.crossposter.models.PostEmbed;
+import com.crossposter.models.PostResult;
+import com.crossposter.models.Profile;
+import com.crossposter.models.ReplyRef;
+import com.crossposter.models.TokenResponse;
+import com.crossposter.models.UploadBlobResponse;
+import com.crossposter.utils.BrowserUtil;
 import com.crossposter.utils.DPoPUtil;
+import com.crossposter.utils.DagCbor;
+import com.crossposter.utils.HttpException;
 import com.crossposter.utils.HttpUtil;
+import com.crossposter.utils.JsonUtil;
 import com.crossposter.utils.LocalCallbackServer;
+import com.crossposter.utils.Metrics;
 import com.crossposter.utils.PkceUtil;
+import com.crossposter.utils.RetryPolicy;
+import com.crossposter.utils.Tid;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
-import java.awt.Desktop;
 import java.io.IOException;
 import java.net.URI;
 import java.net.Socket;
@@ -15,35 +35,65 @@ import java.net.InetSocketAddress;
 import java.net.URLEncoder;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 
 public class BlueskyClient {
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader PAR_READER = JsonUtil.MAPPER.readerFor(ParResponse.class);
+    private static final ObjectReader TOKEN_READER = JsonUtil.MAPPER.readerFor(TokenResponse.class);
+    private static final ObjectReader CLAIMS_READER = JsonUtil.MAPPER.readerFor(AccessTokenPayload.class);
+    private static final ObjectReader CREATE_RECORD_READER = JsonUtil.MAPPER.readerFor(CreateRecordResponse.class);
+    private static final ObjectReader UPLOAD_BLOB_READER = JsonUtil.MAPPER.readerFor(UploadBlobResponse.class);
+    private static final ObjectWriter CREATE_RECORD_WRITER = JsonUtil.MAPPER.writerFor(CreateRecordRequest.class);
+    private static final ObjectReader APPLY_WRITES_READER = JsonUtil.MAPPER.readerFor(ApplyWritesResponse.class);
+    private static final ObjectWriter APPLY_WRITES_WRITER = JsonUtil.MAPPER.writerFor(ApplyWritesRequest.class);
+    private static final ObjectWriter CREATE_WRITER = JsonUtil.MAPPER.writerFor(ApplyWritesRequest.Create.class);
 
     private static final String CLIENT_ID = "https://bcala06.github.io/bluesky-mastodon-crossposter/client-metadata.json";
     private static final String REDIRECT_URI = "http://127.0.0.1:8080/callback";
-    private static final String SCOPE = "atproto repo:app.bsky.feed.post?action=create";
+    // putRecord needs both actions, as it creates or replaces
+    private static final String SCOPE = "atproto repo:app.bsky.feed.post?action=create&action=update blob:*/*";
+    private static final int MAX_IMAGES = 4;
+    // The reference PDS accepts up to 200 writes per applyWrites; the byte cap keeps well under its JSON body limit
+    private static final int MAX_WRITES_PER_BATCH = 200;
+    private static final int MAX_BATCH_BYTES = 100 * 1024;
 
-    private record TokenClaims(String did, String pdsEndpoint) {}
+    private final AuthServerMetadataCache metadataCache = new AuthServerMetadataCache();
+    private final HandleResolver handleResolver = new HandleResolver();
+    private final ProfileCache profileCache = new ProfileCache("bluesky-profiles.json");
+    private volatile Consumer<AuthSession> sessionListener = session -> {};
 
-    public AuthSession startAuth(String pdsOrigin) throws Exception {
-        String metaUrl = pdsOrigin + "/.well-known/oauth-authorization-server";
-        String metaBody = HttpUtil.get(metaUrl, Map.of("Accept", "application/json"));
-        Map<String, Object> meta = MAPPER.readValue(metaBody, Map.class);
+    record TokenClaims(String did, String pdsEndpoint, Instant issuedAt, Instant expiresAt) {}
 
-        String parEndpoint = (String) meta.get("pushed_authorization_request_endpoint");
-        String authEndpoint = (String) meta.get("authorization_endpoint");
-        String tokenEndpoint = (String) meta.get("token_endpoint");
+    // The access token's JWT payload fields we read
+    record AccessTokenPayload(String sub, String aud, Long iat, Long exp) {}
+
+    public AuthSession startAuth(String pdsOrigin) throws Exception {
+        // Start loading metadata (usually a cache hit) while PKCE and DPoP keys are generated
+        metadataCache.getAsync(pdsOrigin);
 
         String codeVerifier = PkceUtil.generateCodeVerifier();
         String codeChallenge = PkceUtil.generateCodeChallenge(codeVerifier);
         DPoPUtil.init();
         AuthSession session = new AuthSession(codeVerifier);
 
+        Map<String, Object> meta = metadataCache.get(pdsOrigin);
+
+        String parEndpoint = (String) meta.get("pushed_authorization_request_endpoint");
+        String authEndpoint = (String) meta.get("authorization_endpoint");
+        String tokenEndpoint = (String) meta.get("token_endpoint");
+
         String state = UUID.randomUUID().toString();
         String parBody = String.format(
                 "client_id=%s&redirect_uri=%s&response_type=code&scope=%s&state=%s&code_challenge=%s&code_challenge_method=S256",
@@ -53,34 +103,16 @@ public class BlueskyClient {
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/x-www-form-urlencoded");
 
-        String dpop1 = DPoPUtil.buildDPoP("POST", parEndpoint, session.dpopNonce, null);
-        headers.put("DPoP", dpop1);
-        HttpResponse<String> parResponse = HttpUtil.postFormWithResponse(parEndpoint, headers, parBody);
-
-        int statusCode = parResponse.statusCode();
-        boolean needsRetry = (statusCode == 401) || (statusCode == 400 && parResponse.body().contains("\"use_dpop_nonce\""));
-
-        if (needsRetry) {
-            String nonce = HttpUtil.extractDpopNonce(parResponse);
-            if (nonce != null && !nonce.isEmpty()) {
-                session.dpopNonce = nonce;
-                String dpop2 = DPoPUtil.buildDPoP("POST", parEndpoint, session.dpopNonce, null);
-                headers.put("DPoP", dpop2);
-                parResponse = HttpUtil.postFormWithResponse(parEndpoint, headers, parBody);
-            }
-        }
-
-        String newNonce = HttpUtil.extractDpopNonce(parResponse);
-        if (newNonce != null) {
-            session.dpopNonce = newNonce;
-        }
+        HttpResponse<String> parResponse = sendWithDPoP(parEndpoint, null, "PAR", proof -> {
+            headers.put("DPoP", proof);
+            return HttpUtil.postFormWithResponse(parEndpoint, headers, parBody);
+        });
 
         if (parResponse.statusCode() != 200 && parResponse.statusCode() != 201) {
-            throw new IOException("PAR failed with status " + parResponse.statusCode() + ": " + parResponse.body());
+            throw HttpException.of(parResponse, "PAR failed");
         }
 
-        Map<String, Object> parJson = MAPPER.readValue(parResponse.body(), Map.class);
-        String requestUri = (String) parJson.get("request_uri");
+        String requestUri = PAR_READER.<ParResponse>readValue(parResponse.body()).requestUri();
         if (requestUri == null || requestUri.trim().isEmpty()) {
             throw new IOException("PAR failed, no request_uri returned: " + parResponse.body());
         }
@@ -95,17 +127,8 @@ public class BlueskyClient {
             callbackServer.start();
             waitForLocalServer("127.0.0.1", 8080, 2000);
 
-            // Open system browser. If Desktop fails, print URL so caller can open manually.
-            try {
-                if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(java.awt.Desktop.Action.BROWSE)) {
-                    Desktop.getDesktop().browse(URI.create(authUrl));
-                } else {
-                    System.out.println("Open this URL in your browser: " + authUrl);
-                }
-            } catch (Exception e) {
-                System.out.println("Failed to open system browser: " + e.getMessage());
-                System.out.println("Open this URL in your browser: " + authUrl);
-            }
+            // Open system browser (or print the URL when headless)
+            BrowserUtil.open(authUrl);
 
             // Wait for callback
             LocalCallbackServer.CallbackResult cb = callbackServer.awaitAuthorizationCode(180);
@@ -127,38 +150,37 @@ public class BlueskyClient {
             headers.clear();
             headers.put("Content-Type", "application/x-www-form-urlencoded");
 
-            String tokenDpop = DPoPUtil.buildDPoP("POST", tokenEndpoint, session.dpopNonce, null);
-            headers.put("DPoP", tokenDpop);
-            HttpResponse<String> tokenResponse = HttpUtil.postFormWithResponse(tokenEndpoint, headers, tokenBody);
-
-            newNonce = HttpUtil.extractDpopNonce(tokenResponse);
-            if (newNonce != null) {
-                session.dpopNonce = newNonce;
-            }
+            HttpResponse<String> tokenResponse = sendWithDPoP(tokenEndpoint, null, "token exchange", proof -> {
+                headers.put("DPoP", proof);
+                return HttpUtil.postFormWithResponse(tokenEndpoint, headers, tokenBody);
+            });
 
             if (tokenResponse.statusCode() != 200) {
-                throw new IOException("Token exchange failed: " + tokenResponse.statusCode() + " " + tokenResponse.body());
+                throw HttpException.of(tokenResponse, "Token exchange failed");
             }
 
-            Map<String, Object> tokenJson = MAPPER.readValue(tokenResponse.body(), Map.class);
-            String accessToken = (String) tokenJson.get("access_token");
-            String refreshToken = (String) tokenJson.get("refresh_token");
-
-            // Parse token claims
-            TokenClaims claims = parseTokenClaims(accessToken);
-            String did = claims.did();
-            String pdsEndpoint = claims.pdsEndpoint();
+            TokenResponse token = TOKEN_READER.readValue(tokenResponse.body());
+            String accessToken = token.accessToken();
+            String refreshToken = token.refreshToken();
 
             // Check for errors
             if (accessToken == null) {
                 throw new IOException("Token exchange response missing access_token: " + tokenResponse.body());
             }
 
+            // Parse token claims
+            TokenClaims claims = parseTokenClaims(accessToken);
+            String did = claims.did();
+            String pdsEndpoint = claims.pdsEndpoint();
+
             // Supply session tokens and handle
             session.accessToken = accessToken;
             session.refreshToken = refreshToken;
             session.did = did;
             session.pdsEndpoint = pdsEndpoint;
+            session.issuedAt = claims.issuedAt();
+            session.expiresAt = claims.expiresAt();
+            session.scope = token.scope();
             session.handle = getHandle(session);
 
             return session;
@@ -169,11 +191,33 @@ public class BlueskyClient {
         }
     }
 
+    /**
+     * Called after a session's tokens are refreshed (in the background or on a rejected request),
+     * e.g. to persist them.
+     */
+    public void setSessionListener(Consumer<AuthSession> listener) {
+        this.sessionListener = listener;
+    }
+
+    /**
+     * Refreshes the session's tokens ahead of expiry. Used by the background token refresh scheduler.
+     */
+    public void refreshSession(AuthSession session) throws Exception {
+        refreshAccessToken(session, session.issuer);
+    }
+
     private void refreshAccessToken(AuthSession session, String pdsOrigin) throws Exception {
-        System.out.println("Access token expired. Refreshing...");
-        String metaUrl = pdsOrigin + "/.well-known/oauth-authorization-server";
-        String metaBody = HttpUtil.get(metaUrl, Map.of("Accept", "application/json"));
-        Map<String, Object> meta = MAPPER.readValue(metaBody, Map.class);
+        session.refreshLock.lock();
+        try {
+            doRefreshAccessToken(session, pdsOrigin);
+        } finally {
+            session.refreshLock.unlock();
+        }
+    }
+
+    private void doRefreshAccessToken(AuthSession session, String pdsOrigin) throws Exception {
+        System.out.println("Refreshing access token...");
+        Map<String, Object> meta = metadataCache.get(pdsOrigin);
         String tokenEndpoint = (String) meta.get("token_endpoint");
 
         if (session.refreshToken == null) {
@@ -188,56 +232,243 @@ public class BlueskyClient {
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/x-www-form-urlencoded");
 
-        String dpop = DPoPUtil.buildDPoP("POST", tokenEndpoint, session.dpopNonce, null);
-        headers.put("DPoP", dpop);
-        HttpResponse<String> response = HttpUtil.postFormWithResponse(tokenEndpoint, headers, refreshBody);
-
-        boolean needsRetry = (response.statusCode() == 401) || (response.statusCode() == 400 && response.body().contains("use_dpop_nonce"));
-        if (needsRetry) {
-            String nonce = HttpUtil.extractDpopNonce(response);
-            if (nonce != null && !nonce.isEmpty()) {
-                session.dpopNonce = nonce;
-                String dpop2 = DPoPUtil.buildDPoP("POST", tokenEndpoint, session.dpopNonce, null);
-                headers.put("DPoP", dpop2);
-                response = HttpUtil.postFormWithResponse(tokenEndpoint, headers, refreshBody);
-            }
-        }
-
-        String newNonce = HttpUtil.extractDpopNonce(response);
-        if (newNonce != null) {
-            session.dpopNonce = newNonce;
-        }
+        HttpResponse<String> response = sendWithDPoP(tokenEndpoint, null, "token refresh", proof -> {
+            headers.put("DPoP", proof);
+            return HttpUtil.postFormWithResponse(tokenEndpoint, headers, refreshBody);
+        });
 
         if (response.statusCode() != 200) {
-            throw new IOException("Token refresh failed: " + response.statusCode() + " " + response.body());
+            throw HttpException.of(response, "Token refresh failed");
         }
 
-        Map<String, Object> tokenJson = MAPPER.readValue(response.body(), Map.class);
-        session.accessToken = (String) tokenJson.get("access_token");
-        session.refreshToken = (String) tokenJson.get("refresh_token");
+        TokenResponse token = TOKEN_READER.readValue(response.body());
+        session.accessToken = token.accessToken();
+        session.refreshToken = token.refreshToken();
 
         TokenClaims claims = parseTokenClaims(session.accessToken);
         session.did = claims.did();
         session.pdsEndpoint = claims.pdsEndpoint();
+        session.issuedAt = claims.issuedAt();
+        session.expiresAt = claims.expiresAt();
+        if (token.scope() != null) {
+            session.scope = token.scope();
+        }
         System.out.println("Token successfully refreshed.");
+        sessionListener.accept(session);
     }
 
-    public Map<String, Object> createPost(AuthSession session, String pdsOrigin, String text) throws Exception {
-        try {
-            return attemptToCreatePost(session, pdsOrigin, text);
-        } catch (IOException e) {
-            String errorMessage = e.getMessage().toLowerCase();
-            if (errorMessage.contains("invalidtoken") || errorMessage.contains("status: 401") || errorMessage.contains("ath mismatch")) {
-                System.out.println("Initial post failed due to token error. Attempting refresh...");
-                refreshAccessToken(session, session.issuer);
-                return attemptToCreatePost(session, session.pdsEndpoint, text);
-            } else {
-                throw e;
+    public PostResult createPost(AuthSession session, String pdsOrigin, String text) throws Exception {
+        return createPost(session, pdsOrigin, text, List.of());
+    }
+
+    /**
+     * Uploads the media as blobs (in parallel) and creates a post embedding them.
+     * @param media up to four images, or a single video
+     */
+    public PostResult createPost(AuthSession session, String pdsOrigin, String text, List<MediaFile> media) throws Exception {
+        return createThread(session, pdsOrigin, List.of(text), media).get(0);
+    }
+
+    public List<PostResult> createThread(AuthSession session, String pdsOrigin, List<String> parts, List<MediaFile> media) throws Exception {
+        return createThread(session, pdsOrigin, parts, media, Tid.next(), Instant.now());
+    }
+
+    /**
+     * Whether the session was granted every scope this version of the app asks for. A session
+     * saved by an older version may lack one added since (putRecord's update action), and
+     * refreshing it keeps the old grant: only a new login fixes it. True if the grant isn't known.
+     */
+    public static boolean hasRequiredScope(AuthSession session) {
+        return session.scope == null || Set.of(session.scope.split(" ")).containsAll(List.of(SCOPE.split(" ")));
+    }
+
+    private static HttpException scopeMissing(AuthSession session, Throwable cause) {
+        return new HttpException(HttpException.Kind.SCOPE_MISSING, 403, null, "Bluesky account "
+                + (session.handle != null ? session.handle : session.did) + " must log in again to allow editing posts", cause);
+    }
+
+    /**
+     * Posts a thread: the first part (with the media) as a post, and each following part as a reply
+     * to the one before it, sent as soon as its parent has been created.
+     * <p>
+     * Each post is written under a key derived from the delivery id, so posting the same delivery
+     * again (with the same createdAt) rewrites the same records (the same URIs and CIDs) rather
+     * than creating new ones. Keys and CIDs are known before anything is sent, so the whole thread
+     * goes out in one {@link #writeRecords} batch.
+     * @param parts the thread's text, each part within the post limit (see {@link ThreadSplitter})
+     * @param deliveryId a TID identifying this post, kept across retries (see {@link Tid})
+     * @param createdAt when the post was first attempted, kept across retries
+     * @return the created posts, in order
+     */
+    public List<PostResult> createThread(AuthSession session, String pdsOrigin, List<String> parts, List<MediaFile> media,
+                                         String deliveryId, Instant createdAt) throws Exception {
+        if (media.size() > MAX_IMAGES || (media.size() > 1 && media.stream().anyMatch(MediaFile::isVideo))) {
+            throw new IllegalArgumentException("A Bluesky post can have up to " + MAX_IMAGES + " images or one video");
+        }
+        requireDid(session);
+        if (!hasRequiredScope(session)) {
+            throw scopeMissing(session, null);
+        }
+        // Mentions resolve (all at once) while the media uploads
+        Set<String> handles = new LinkedHashSet<>();
+        parts.forEach(part -> handles.addAll(FacetBuilder.mentions(part)));
+        CompletableFuture<Map<String, String>> dids = handleResolver.resolveAll(handles);
+
+        PostEmbed embed = media.isEmpty() ? null
+                : withTokenRefresh(session, pdsOrigin, true, pds -> embedFor(media, MediaFile.uploadAll(media, file -> uploadBlob(session, pds, file))));
+        Map<String, String> didsByHandle = dids.join();
+
+        List<CreateRecordRequest> records = new ArrayList<>(parts.size());
+        ReplyRef reply = null;
+        for (String part : parts) {
+            CreateRecordRequest record = createRecordBody(session.did, part, createdAt, FacetBuilder.build(part, didsByHandle),
+                    records.isEmpty() ? embed : null, reply).withRkey(Tid.derive(deliveryId, records.size()));
+            records.add(record);
+            ReplyRef.StrongRef ref = new ReplyRef.StrongRef(recordUri(record), DagCbor.cid(record.record()));
+            reply = new ReplyRef(reply == null ? ref : reply.root(), ref);
+        }
+        return writeRecords(session, pdsOrigin, records);
+    }
+
+    /**
+     * Writes records to the account's repo with com.atproto.repo.applyWrites: one request, and so
+     * one DPoP proof, per chunk of up to {@value #MAX_WRITES_PER_BATCH} records (fewer if their JSON
+     * would pass {@value #MAX_BATCH_BYTES} bytes). Every record must have its rkey set, which is what
+     * lets records reference each other within a batch (see {@link DagCbor#cid}).
+     * <p>
+     * A chunk that fails transiently (a timeout, a 5xx), or that conflicts with records already at
+     * its keys, is written again record by record with putRecord. applyWrites commits all or nothing
+     * and putRecord rewrites an identical record in place, so a chunk that did commit before the
+     * error isn't duplicated. Any other failure (a rejected token or record, an open circuit) is
+     * thrown as is: putRecord would fail the same way, once per record.
+     * @return the written records, in order
+     */
+    public List<PostResult> writeRecords(AuthSession session, String pdsOrigin, List<CreateRecordRequest> records) throws Exception {
+        requireDid(session);
+        List<PostResult> written = new ArrayList<>(records.size());
+        for (List<CreateRecordRequest> chunk : chunks(records)) {
+            if (chunk.size() == 1) {
+                written.add(withTokenRefresh(session, pdsOrigin, true, pds -> attemptToPutRecord(session, pds, chunk.get(0))));
+                continue;
+            }
+            try {
+                written.addAll(withTokenRefresh(session, pdsOrigin, false, pds -> attemptToApplyWrites(session, pds, chunk)));
+            } catch (HttpException e) {
+                boolean retryable = e.isTransient() && e.kind() != HttpException.Kind.CIRCUIT_OPEN;
+                if (!retryable && !isCreateConflict(e)) throw e;
+                System.out.println("applyWrites failed (" + e.getMessage() + "); writing " + chunk.size() + " records one by one");
+                Metrics.increment("crossposter_retries", "platform", "bluesky", "reason", "apply_writes_fallback");
+                for (CreateRecordRequest record : chunk) {
+                    written.add(withTokenRefresh(session, pdsOrigin, true, pds -> attemptToPutRecord(session, pds, record)));
+                }
+            }
+        }
+        return written;
+    }
+
+    // A create at a key that already holds a record, e.g. when an earlier attempt did commit
+    private static boolean isCreateConflict(HttpException e) {
+        String message = String.valueOf(e.getMessage());
+        return e.kind() == HttpException.Kind.CLIENT_ERROR
+                && (e.status() == 409 || message.contains("already exists") || message.contains("already a value"));
+    }
+
+    private static List<List<CreateRecordRequest>> chunks(List<CreateRecordRequest> records) throws IOException {
+        List<List<CreateRecordRequest>> chunks = new ArrayList<>();
+        List<CreateRecordRequest> chunk = new ArrayList<>();
+        long bytes = 0;
+        for (CreateRecordRequest record : records) {
+            if (record.rkey() == null) {
+                throw new IllegalArgumentException("Batched records need an rkey");
+            }
+            long size = CREATE_WRITER.writeValueAsBytes(ApplyWritesRequest.Create.of(record)).length;
+            if (!chunk.isEmpty() && (chunk.size() == MAX_WRITES_PER_BATCH || bytes + size > MAX_BATCH_BYTES)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(record);
+            bytes += size;
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+
+    private static String recordUri(CreateRecordRequest record) {
+        return "at://" + record.repo() + "/" + record.collection() + "/" + record.rkey();
+    }
+
+    private static void requireDid(AuthSession session) {
+        if (session.did == null || session.did.isBlank()) {
+            throw new IllegalStateException("AuthSession has no DID. Make sure to set it after login.");
+        }
+    }
+
+    @FunctionalInterface
+    private interface PdsCall<T> {
+        T call(String pdsOrigin) throws Exception;
+    }
+
+    /**
+     * Runs the call, refreshing the access token and retrying once if the PDS rejected it. Calls
+     * that are safe to repeat are also retried, each time with a new DPoP proof, after a 5xx or a
+     * timeout (see {@link RetryPolicy}; 429s are handled by sendWithDPoP).
+     * @param idempotent whether running the call twice has the same effect as once
+     */
+    private <T> T withTokenRefresh(AuthSession session, String pdsOrigin, boolean idempotent, PdsCall<T> call) throws Exception {
+        boolean refreshed = false;
+        for (int attempt = 0; ; attempt++) {
+            String tokenUsed = session.accessToken;
+            try {
+                return call.call(pdsOrigin);
+            } catch (HttpException e) {
+                if (e.kind() == HttpException.Kind.TOKEN_EXPIRED && !refreshed) {
+                    System.out.println("Initial request failed due to token error. Attempting refresh...");
+                    Metrics.increment("crossposter_retries", "platform", "bluesky", "reason", "token_refresh");
+                    session.refreshLock.lock();
+                    try {
+                        // Skip the refresh if the background scheduler (or a parallel upload) already rotated the token
+                        if (tokenUsed != null && tokenUsed.equals(session.accessToken)) {
+                            doRefreshAccessToken(session, session.issuer);
+                        }
+                    } finally {
+                        session.refreshLock.unlock();
+                    }
+                    refreshed = true;
+                    pdsOrigin = session.pdsEndpoint;
+                } else if (e.kind() == HttpException.Kind.SCOPE_MISSING) {
+                    throw scopeMissing(session, e);
+                } else if (e.kind() != HttpException.Kind.RATE_LIMITED && RetryPolicy.shouldRetry(e, attempt, idempotent)) {
+                    // 429s have already been waited out by sendWithDPoP
+                    Duration wait = RetryPolicy.delay(e, attempt);
+                    System.out.println("Bluesky request failed (" + e.kind() + "); retrying in " + wait.toMillis() + "ms");
+                    Metrics.increment("crossposter_retries", "platform", "bluesky", "reason", e.kind().name().toLowerCase(Locale.ROOT));
+                    Thread.sleep(wait.toMillis());
+                } else {
+                    throw e;
+                }
             }
         }
     }
 
+    // Served from the profile cache (keyed by DID) when the account has been seen before
     public String getHandle(AuthSession session) throws Exception {
+        return profileCache.get(session.did, () -> getProfile(session)).handle();
+    }
+
+    // The last known profile (however old), or null; never blocks
+    public Profile cachedProfile(AuthSession session) {
+        return profileCache.peek(session.did);
+    }
+
+    /**
+     * Re-fetches the account's profile in the background if the cached one is older than its TTL.
+     */
+    public CompletableFuture<Profile> refreshProfile(AuthSession session) {
+        return profileCache.refresh(session.did, () -> getProfile(session));
+    }
+
+    public Profile getProfile(AuthSession session) throws Exception {
         if (session.accessToken == null) {
             throw new IllegalStateException("Warning: Session access token not found.");
         }
@@ -247,81 +478,175 @@ public class BlueskyClient {
 
         String handleEndpoint = "https://public.api.bsky.app/xrpc/app.bsky.actor.getProfile?actor=" + session.did;
         Map<String, String> headers = Map.of("Authorization", "Bearer " + session.accessToken);
-        HttpResponse<String> getResponse = HttpUtil.getWithResponse(handleEndpoint, headers);
+        // Profiles carry large nested objects; only stream out the top-level fields the UI shows
+        HttpResponse<HttpUtil.JsonBody<String[]>> getResponse = HttpUtil.getJson(handleEndpoint, headers,
+                in -> JsonUtil.extractStrings(in, "handle", "displayName", "avatar"));
+
+        String[] fields;
+        try {
+            fields = getResponse.body().get();
+        } catch (IOException e) {
+            throw new IOException("getProfile failed: " + e.getMessage(), e);
+        }
+        return new Profile(fields[0], fields[1], fields[2]);
+    }
+
+    // Streams the file to com.atproto.repo.uploadBlob and checks the PDS stored what we hashed
+    private BlobRef uploadBlob(AuthSession session, String pdsOrigin, MediaFile file) throws Exception {
+        String url = xrpcBase(pdsOrigin) + "/xrpc/com.atproto.repo.uploadBlob";
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "DPoP " + session.accessToken);
+        headers.put("Content-Type", file.mimeType());
 
-        if (getResponse.statusCode() != 200)
-            throw new IOException("getProfile failed: " + getResponse.statusCode() + " " + getResponse.body());
+        HttpResponse<String> response = sendWithDPoP(url, session.accessToken, "uploadBlob", proof -> {
+            headers.put("DPoP", proof);
+            return HttpUtil.postFileWithResponse(url, headers, file.path());
+        });
 
-        Map<String, Object> outer = MAPPER.readValue(getResponse.body(), Map.class);
-        String handle = (String) outer.get("handle");
+        if (response.statusCode() != 200) {
+            throw HttpException.of(response, "Failed to upload " + file.fileName());
+        }
 
-        return handle;
+        BlobRef blob = UPLOAD_BLOB_READER.<UploadBlobResponse>readValue(response.body()).blob();
+        if (blob == null || !file.blobCid().equals(blob.cid())) {
+            throw new IOException("Upload of " + file.fileName() + " was corrupted: expected blob " + file.blobCid()
+                    + ", PDS stored " + (blob == null ? null : blob.cid()));
+        }
+        return blob;
     }
 
-    private Map<String, Object> attemptToCreatePost(AuthSession session, String pdsOrigin, String text) throws Exception {
-        if (session.did == null || session.did.isBlank()) {
-            throw new IllegalStateException("AuthSession has no DID. Make sure to set it after login.");
+    static PostEmbed embedFor(List<MediaFile> media, List<BlobRef> blobs) {
+        if (media.size() == 1 && media.get(0).isVideo()) {
+            return PostEmbed.video(blobs.get(0), media.get(0).alt());
+        }
+        List<PostEmbed.Image> images = new ArrayList<>(media.size());
+        for (int i = 0; i < media.size(); i++) {
+            String alt = media.get(i).alt();
+            images.add(new PostEmbed.Image(alt != null ? alt : "", blobs.get(i)));
+        }
+        return PostEmbed.images(images);
+    }
+
+    private static String xrpcBase(String pdsOrigin) {
+        return pdsOrigin.startsWith("did:web:") ? "https://" + pdsOrigin.substring(8) : pdsOrigin;
+    }
+
+    // putRecord rather than createRecord: the key is ours, so a retry overwrites instead of duplicating
+    private PostResult attemptToPutRecord(AuthSession session, String pdsOrigin, CreateRecordRequest record) throws Exception {
+        String url = xrpcBase(pdsOrigin) + "/xrpc/com.atproto.repo.putRecord";
+
+        long serializeStart = System.nanoTime();
+        String jsonBody = CREATE_RECORD_WRITER.writeValueAsString(record);
+        Metrics.recordNanos("crossposter_phase_seconds", System.nanoTime() - serializeStart, "phase", "serialize");
+
+        HttpResponse<String> postResponse = postWithDPoP(session, url, jsonBody, "createPost");
+        if (postResponse.statusCode() != 200) {
+            throw HttpException.of(postResponse, "Failed to create post");
         }
 
-        String httpPdsUrl = pdsOrigin.startsWith("did:web:") ? "https://" + pdsOrigin.substring(8) : pdsOrigin;
-        String url = httpPdsUrl + "/xrpc/com.atproto.repo.createRecord";
+        CreateRecordResponse created = CREATE_RECORD_READER.readValue(postResponse.body());
+        return new PostResult(created.cid(), created.uri(), null);
+    }
+
+    private List<PostResult> attemptToApplyWrites(AuthSession session, String pdsOrigin, List<CreateRecordRequest> records) throws Exception {
+        String url = xrpcBase(pdsOrigin) + "/xrpc/com.atproto.repo.applyWrites";
 
-        Map<String, Object> record = Map.of(
-                "text", text,
-                "$type", "app.bsky.feed.post",
-                "createdAt", Instant.now().toString()
-        );
+        long serializeStart = System.nanoTime();
+        String jsonBody = APPLY_WRITES_WRITER.writeValueAsString(
+                new ApplyWritesRequest(session.did, records.stream().map(ApplyWritesRequest.Create::of).toList()));
+        Metrics.recordNanos("crossposter_phase_seconds", System.nanoTime() - serializeStart, "phase", "serialize");
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("repo", session.did);
-        body.put("collection", "app.bsky.feed.post");
-        body.put("record", record);
+        HttpResponse<String> postResponse = postWithDPoP(session, url, jsonBody, "applyWrites");
+        if (postResponse.statusCode() != 200) {
+            throw HttpException.of(postResponse, "Failed to apply writes");
+        }
 
-        String jsonBody = MAPPER.writeValueAsString(body);
+        List<CreateRecordResponse> applied = APPLY_WRITES_READER.<ApplyWritesResponse>readValue(postResponse.body()).results();
+        List<PostResult> results = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            String uri = recordUri(records.get(i));
+            String cid = DagCbor.cid(records.get(i).record());
+            // Later records in the batch were built pointing at this CID, so a difference means broken reply refs
+            if (applied != null && i < applied.size() && applied.get(i).cid() != null && !applied.get(i).cid().equals(cid)) {
+                System.out.println("Warning: PDS stored " + uri + " as " + applied.get(i).cid() + ", expected " + cid);
+                cid = applied.get(i).cid();
+            }
+            results.add(new PostResult(cid, uri, null));
+        }
+        return results;
+    }
 
+    // POSTs the JSON with a DPoP proof
+    private HttpResponse<String> postWithDPoP(AuthSession session, String url, String jsonBody, String operation) throws Exception {
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", "DPoP " + session.accessToken);
         headers.put("Content-Type", "application/json");
 
-        String dpop = DPoPUtil.buildDPoP("POST", url, session.dpopNonce, session.accessToken);
-        headers.put("DPoP", dpop);
-        HttpResponse<String> postResponse = HttpUtil.postFormWithResponse(url, headers, jsonBody);
+        return sendWithDPoP(url, session.accessToken, operation, proof -> {
+            headers.put("DPoP", proof);
+            return HttpUtil.postFormWithResponse(url, headers, jsonBody);
+        });
+    }
+
+    @FunctionalInterface
+    private interface DPoPRequest {
+        HttpResponse<String> send(String proof) throws Exception;
+    }
 
-        boolean needsRetry = (postResponse.statusCode() == 401) || (postResponse.statusCode() == 400 && postResponse.body().contains("use_dpop_nonce"));
-        if (needsRetry) {
-            System.out.println("DPoP nonce mismatch on createPost. Retrying...");
-            String nonce = HttpUtil.extractDpopNonce(postResponse);
+    /**
+     * Sends a POST with a new DPoP proof, and once more with another proof if the server asks for
+     * its nonce. A 429 is waited out and sent again, also with a new proof. A proof is only good for
+     * one request, so this is also the only way to resend a DPoP request: the HTTP layer never
+     * replays one.
+     * @param accessToken the token the proof is bound to, or null for the authorization server
+     */
+    private HttpResponse<String> sendWithDPoP(String url, String accessToken, String operation,
+                                              DPoPRequest request) throws Exception {
+        HttpResponse<String> response = request.send(DPoPUtil.buildDPoP("POST", url, accessToken));
+        for (int attempt = 0; RetryPolicy.classify(response) == HttpException.Kind.RATE_LIMITED; attempt++) {
+            // Refused before it was processed, so sending it again can't duplicate anything
+            HttpException limited = HttpException.of(response, operation + " was rate limited");
+            if (!RetryPolicy.shouldRetry(limited, attempt, false)) break;
+            Duration wait = RetryPolicy.delay(limited, attempt);
+            System.out.println("Rate limited on " + operation + "; retrying in " + wait.toMillis() + "ms");
+            Metrics.increment("crossposter_retries", "platform", "bluesky", "reason", "rate_limited");
+            Thread.sleep(wait.toMillis());
+            response = request.send(DPoPUtil.buildDPoP("POST", url, accessToken));
+        }
+        if (RetryPolicy.classify(response) == HttpException.Kind.NONCE_REQUIRED) {
+            String nonce = HttpUtil.extractDpopNonce(response);
             if (nonce != null && !nonce.isEmpty()) {
-                session.dpopNonce = nonce;
-                String dpop2 = DPoPUtil.buildDPoP("POST", url, session.dpopNonce, session.accessToken);
-                headers.put("DPoP", dpop2);
-                postResponse = HttpUtil.postFormWithResponse(url, headers, jsonBody);
+                System.out.println("DPoP nonce mismatch on " + operation + ". Retrying...");
+                Metrics.increment("crossposter_retries", "platform", "bluesky", "reason", "dpop_nonce");
+                response = request.send(DPoPUtil.buildDPoP("POST", url, accessToken));
             }
         }
+        return response;
+    }
 
-        String finalNonce = HttpUtil.extractDpopNonce(postResponse);
-        if (finalNonce != null) {
-            session.dpopNonce = finalNonce;
-        }
-
-        if (postResponse.statusCode() != 200) {
-            throw new IOException("Failed to create post. Status: " + postResponse.statusCode() + ", Response: " + postResponse.body());
-        }
+    // Body of a com.atproto.repo.createRecord call for a plain-text post
+    static CreateRecordRequest createRecordBody(String did, String text, Instant createdAt) {
+        return createRecordBody(did, text, createdAt, List.of(), null, null);
+    }
 
-        return MAPPER.readValue(postResponse.body(), Map.class);
+    static CreateRecordRequest createRecordBody(String did, String text, Instant createdAt, List<Facet> facets,
+                                                PostEmbed embed, ReplyRef reply) {
+        return CreateRecordRequest.post(did, text, createdAt.toString(), facets, embed, reply);
     }
 
-    private TokenClaims parseTokenClaims(String accessToken) throws IOException {
+    static TokenClaims parseTokenClaims(String accessToken) throws IOException {
         try {
-            String[] parts = accessToken.split("\\.");
-            if (parts.length < 2) {
+            int payloadStart = accessToken.indexOf('.') + 1;
+            int payloadEnd = accessToken.indexOf('.', payloadStart);
+            if (payloadStart == 0 || payloadEnd < 0) {
                 throw new IllegalArgumentException("Invalid JWT format");
             }
-            String payload = new String(java.util.Base64.getUrlDecoder().decode(parts[1]));
-            Map<String, Object> claims = MAPPER.readValue(payload, Map.class);
+            byte[] payload = java.util.Base64.getUrlDecoder().decode(accessToken.substring(payloadStart, payloadEnd));
+            AccessTokenPayload claims = CLAIMS_READER.readValue(payload);
 
-            String did = (String) claims.get("sub");
-            String pdsEndpoint = (String) claims.get("aud");
+            String did = claims.sub();
+            String pdsEndpoint = claims.aud();
 
             if (did == null || !did.startsWith("did:")) {
                 throw new IOException("Could not extract DID ('sub') from access token");
@@ -330,12 +655,16 @@ public class BlueskyClient {
                 throw new IOException("Could not extract PDS endpoint ('aud') from access token");
             }
 
-            return new TokenClaims(did, pdsEndpoint);
+            return new TokenClaims(did, pdsEndpoint, epochClaim(claims.iat()), epochClaim(claims.exp()));
         } catch (Exception e) {
             throw new IOException("Failed to parse access token claims: " + e.getMessage(), e);
         }
     }
 
+    private static Instant epochClaim(Long value) {
+        return value != null ? Instant.ofEpochSecond(value) : null;
+    }
+
     private static void waitForLocalServer(String host, int port, int maxMillis) {
         long deadline = System.currentTimeMillis() + maxMillis;
         while (System.currentTimeMillis() < deadline) {
@@ -0,0 +1,347 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Attachment;
+import com.crossposter.models.PostResult;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.StorageUtil;
+import com.crossposter.utils.Tid;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Posts every entry of a JSONL file (one {@code {"text": ..., "targets": [...], "media": [{"path": ..., "alt": ...}]}}
+ * object per line; relative media paths are resolved against the file's directory).
+ * The file is read with Jackson's streaming parser one record at a time, and the reader blocks on
+ * a per-target semaphore, so memory stays flat regardless of file size. Progress is checkpointed
+ * next to the input file so an interrupted run resumes where it left off, and running a file again
+ * retries only the deliveries that failed. The checkpoint belongs to one version of the file: once
+ * the file is edited, the next run starts over. Every target outcome is appended to a per-line report
+ * ({@code <input>.report.jsonl}); a line that isn't a JSON object is reported and skipped.
+ */
+public class BulkPostPipeline {
+    private static final ObjectReader POST_READER = JsonUtil.MAPPER.readerFor(BulkPost.class);
+    private static final ObjectWriter REPORT_WRITER = JsonUtil.MAPPER.writerFor(ReportLine.class);
+    private static final ObjectReader SAVED_READER = JsonUtil.MAPPER.readerFor(Checkpoint.Saved.class);
+    private static final ObjectWriter SAVED_WRITER = JsonUtil.MAPPER.writerFor(Checkpoint.Saved.class);
+    private static final long EPOCH_2010_MICROS = 1_262_304_000_000_000L;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record BulkPost(String text, List<String> targets, List<Attachment> media) {}
+
+    public record Summary(int posted, int failed, int skipped) {}
+
+    private record ReportLine(long line, String target, String status, String detail) {}
+
+    private final Function<String, CrosspostDispatcher.PostTarget> resolver;
+    private final int perTargetConcurrency;
+
+    /**
+     * @param resolver maps a target name to a postable target, or null if it isn't connected
+     * @param perTargetConcurrency max in-flight posts per target; 1 keeps each target in file order
+     */
+    public BulkPostPipeline(Function<String, CrosspostDispatcher.PostTarget> resolver, int perTargetConcurrency) {
+        this.resolver = resolver;
+        this.perTargetConcurrency = perTargetConcurrency;
+    }
+
+    /**
+     * Runs the file to completion, blocking the calling thread.
+     * @param input JSONL file of posts
+     * @param defaultTargets targets for entries that don't list their own
+     * @param progress called after each entry completes
+     */
+    public Summary run(Path input, List<String> defaultTargets, Consumer<Summary> progress) throws IOException {
+        Path checkpointFile = input.resolveSibling(input.getFileName() + ".checkpoint");
+        Path reportFile = input.resolveSibling(input.getFileName() + ".report.jsonl");
+
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile, digest(input));
+        AtomicInteger posted = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        Map<String, Semaphore> permits = new HashMap<>();
+
+        try (JsonParser parser = JsonUtil.MAPPER.getFactory().createParser(input.toFile());
+             BufferedWriter report = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            long seq = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                // Every top-level value takes an index, so fixing a bad line doesn't shift the ones after it
+                long index = seq++;
+                long line = parser.currentLocation().getLineNr();
+                Set<String> retry = checkpoint.retryTargets(index);
+                if (retry != null && retry.isEmpty()) {
+                    parser.skipChildren();
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    writeReport(report, new ReportLine(line, null, "error", "Not a JSON object: " + parser.getText()));
+                    parser.skipChildren();
+                    failed.incrementAndGet();
+                    checkpoint.finished(index, Set.of(Checkpoint.WHOLE_ENTRY));
+                    continue;
+                }
+
+                BulkPost post = POST_READER.readValue(parser);
+                List<String> targets = post.targets() == null || post.targets().isEmpty() ? defaultTargets : post.targets();
+                Set<String> failedTargets = ConcurrentHashMap.newKeySet();
+                Map<String, CrosspostDispatcher.PostTarget> resolved = new LinkedHashMap<>();
+                for (String name : targets) {
+                    // A resumed entry only goes to the targets that failed last time
+                    if (retry != null && !retry.contains(Checkpoint.WHOLE_ENTRY) && !retry.contains(name)) continue;
+                    CrosspostDispatcher.PostTarget target = resolver.apply(name);
+                    if (target == null || post.text() == null) {
+                        writeReport(report, new ReportLine(line, name, "error",
+                                post.text() == null ? "Missing text" : "Target not connected"));
+                        failed.incrementAndGet();
+                        failedTargets.add(name);
+                    } else {
+                        resolved.put(name, target);
+                    }
+                }
+                if (resolved.isEmpty()) {
+                    checkpoint.finished(index, failedTargets);
+                    continue;
+                }
+
+                // Hashed once for every target of the entry, while the targets queue up
+                List<Attachment> attachments = resolveMedia(input, post.media());
+                CompletableFuture<List<MediaFile>> media = MediaFile.prepareAll(attachments);
+                String deliveryId = deliveryId(input, index, post.text(), attachments);
+                Instant createdAt = checkpoint.started(index);
+                AtomicInteger remaining = new AtomicInteger(resolved.size());
+                resolved.forEach((name, target) -> {
+                    // Blocks the reader when the target is saturated, which bounds memory and keeps per-target order
+                    Semaphore semaphore = permits.computeIfAbsent(target.name(), k -> new Semaphore(perTargetConcurrency, true));
+                    semaphore.acquireUninterruptibly();
+                    executor.execute(() -> {
+                        try {
+                            PostResult result = target.action().post(deliveryId, createdAt, post.text(), media.join());
+                            writeReport(report, new ReportLine(line, target.name(), "ok", result == null ? null : result.ref()));
+                            posted.incrementAndGet();
+                        } catch (Exception e) {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                            writeReport(report, new ReportLine(line, target.name(), "error", cause.getMessage()));
+                            failed.incrementAndGet();
+                            failedTargets.add(name);
+                        } finally {
+                            semaphore.release();
+                            if (remaining.decrementAndGet() == 0) {
+                                checkpoint.finished(index, failedTargets);
+                                progress.accept(new Summary(posted.get(), failed.get(), skipped.get()));
+                            }
+                        }
+                    });
+                });
+            }
+        }
+
+        return new Summary(posted.get(), failed.get(), skipped.get());
+    }
+
+    /**
+     * The delivery id of an entry, a hash of the file's path, the entry's index and its content
+     * (text and media). A resumed run sends an entry under the id an interrupted one used, so it
+     * rewrites that post instead of posting a second one, while an entry whose text was edited
+     * gets a new id: an earlier post with the old text is never overwritten, nor (on Mastodon)
+     * handed back in place of the new one. The timestamp isn't a real time: 48 bits of the hash
+     * in microseconds after 2010 (about nine years), with 10 more bits as the clock id.
+     */
+    private static String deliveryId(Path input, long index, String text, List<Attachment> media) {
+        MessageDigest sha = sha256();
+        update(sha, input.toAbsolutePath().normalize().toString());
+        update(sha, Long.toString(index));
+        update(sha, text);
+        for (Attachment attachment : media) {
+            update(sha, attachment.path());
+            update(sha, attachment.alt());
+        }
+        long hash = ByteBuffer.wrap(sha.digest()).getLong();
+        return Tid.of(EPOCH_2010_MICROS + (hash >>> 16), (int) hash);
+    }
+
+    // Null-terminated, so no two sequences of fields hash alike
+    private static void update(MessageDigest sha, String field) {
+        if (field != null) {
+            sha.update(field.getBytes(StandardCharsets.UTF_8));
+        }
+        sha.update((byte) 0);
+    }
+
+    // Identifies the version of the input file a checkpoint belongs to
+    private static String digest(Path input) throws IOException {
+        MessageDigest sha = sha256();
+        try (InputStream in = Files.newInputStream(input)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                sha.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Attachment> resolveMedia(Path input, List<Attachment> media) {
+        if (media == null) return List.of();
+        Path dir = input.toAbsolutePath().getParent();
+        return media.stream()
+                .map(a -> a.path() == null ? a : new Attachment(dir.resolve(a.path()).toString(), a.alt()))
+                .toList();
+    }
+
+    private static synchronized void writeReport(BufferedWriter report, ReportLine line) {
+        try {
+            report.write(REPORT_WRITER.writeValueAsString(line));
+            report.newLine();
+            report.flush();
+        } catch (IOException e) {
+            System.out.println("Bulk post: could not write report line " + line.line() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tracks the contiguous prefix of finished entries, and for each entry that was started but not
+     * delivered everywhere, its createdAt and the targets it failed. A resumed run skips what was
+     * delivered, tries only the failed deliveries again, and posts them with their first createdAt.
+     * Entries finishing out of order are held until the gap before them closes, so resuming never
+     * skips an unfinished entry.
+     * <p>
+     * Saved as JSON along with the digest of the input file; a checkpoint of another version of the
+     * file (or an unreadable one) is discarded.
+     */
+    private static final class Checkpoint {
+        static final String WHOLE_ENTRY = "*";
+
+        /**
+         * @param open by entry index: entries in flight, and finished entries that failed a target
+         */
+        record Saved(String digest, long next, Map<Long, Open> open) {}
+
+        /**
+         * @param createdAt epoch millis of the entry's first attempt
+         * @param failed targets to try again; {@value #WHOLE_ENTRY} if the entry couldn't be read
+         */
+        record Open(long createdAt, Set<String> failed) {}
+
+        private final Path file;
+        private final String digest;
+        private final TreeSet<Long> finishedAhead = new TreeSet<>();
+        private final TreeMap<Long, Open> open = new TreeMap<>();
+        private long next;
+
+        private Checkpoint(Path file, String digest) {
+            this.file = file;
+            this.digest = digest;
+        }
+
+        static Checkpoint read(Path file, String digest) {
+            Checkpoint checkpoint = new Checkpoint(file, digest);
+            if (!Files.exists(file)) return checkpoint;
+            Saved saved;
+            try {
+                saved = SAVED_READER.readValue(file.toFile());
+            } catch (IOException e) {
+                saved = null;
+            }
+            if (saved == null || !digest.equals(saved.digest())) {
+                System.out.println("Bulk post: " + file.getFileName() + " doesn't match the input file; starting over");
+                return checkpoint;
+            }
+            checkpoint.next = saved.next();
+            if (saved.open() != null) {
+                checkpoint.open.putAll(saved.open());
+            }
+            return checkpoint;
+        }
+
+        /**
+         * @return null if the entry hasn't been finished, else the targets to try again (none if it
+         * was delivered everywhere)
+         */
+        synchronized Set<String> retryTargets(long index) {
+            if (index >= next) return null;
+            Open entry = open.get(index);
+            return entry == null ? Set.of() : entry.failed();
+        }
+
+        /**
+         * Records that the entry is being posted, and returns its createdAt: the time it was first
+         * started, in this run or an earlier one.
+         */
+        synchronized Instant started(long index) {
+            Open entry = open.get(index);
+            // An entry that couldn't be read was never started
+            if (entry == null || entry.createdAt() == 0) {
+                entry = new Open(System.currentTimeMillis(), entry == null ? Set.of() : entry.failed());
+                open.put(index, entry);
+                save();
+            }
+            return Instant.ofEpochMilli(entry.createdAt());
+        }
+
+        synchronized void finished(long index, Set<String> failedTargets) {
+            if (failedTargets.isEmpty()) {
+                open.remove(index);
+            } else {
+                Open entry = open.get(index);
+                open.put(index, new Open(entry == null ? 0 : entry.createdAt(), Set.copyOf(failedTargets)));
+            }
+            finishedAhead.add(index);
+            while (!finishedAhead.isEmpty() && finishedAhead.first() <= next) {
+                if (finishedAhead.pollFirst() == next) next++;
+            }
+            save();
+        }
+
+        private void save() {
+            try {
+                StorageUtil.writeAtomically(file, SAVED_WRITER.writeValueAsBytes(new Saved(digest, next, new TreeMap<>(open))));
+            } catch (IOException e) {
+                System.out.println("Bulk post: could not write checkpoint: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.crossposter.services;
+
+import com.crossposter.models.PostResult;
+import com.crossposter.utils.Metrics;
+import com.crossposter.utils.Tid;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fans a single post out to every selected target at the same time.
+ * Each target runs on its own virtual thread, so the total latency of a
+ * crosspost is that of the slowest target rather than the sum of all of them.
+ */
+public class CrosspostDispatcher {
+
+    public static final String BLUESKY = "Bluesky";
+    public static final String MASTODON = "Mastodon";
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * A single post action against one platform/account.
+     */
+    @FunctionalInterface
+    public interface PostAction {
+        /**
+         * @param deliveryId identifies the post across attempts (a {@link Tid}); posting again with
+         *                   the same id must not create a second post
+         * @param createdAt when the post was first attempted, the same on every attempt
+         */
+        PostResult post(String deliveryId, Instant createdAt, String content, List<MediaFile> media) throws Exception;
+    }
+
+    /**
+     * A named destination for a crosspost, usually an account id (e.g. "Bluesky:did:plc:...").
+     */
+    public record PostTarget(String name, PostAction action) {}
+
+    // Text over the platform's limit is posted as a thread; the result is the thread's first post
+    public static PostTarget bluesky(String name, BlueskyClient client, AuthSession session, String pdsOrigin,
+                                     MediaTranscoder transcoder) {
+        return new PostTarget(name, (deliveryId, createdAt, content, media) -> client.createThread(session, pdsOrigin,
+                ThreadSplitter.split(content, ThreadSplitter.BLUESKY),
+                transcoder.transcodeAll(media, MediaTranscoder.BLUESKY), deliveryId, createdAt).get(0));
+    }
+
+    public static PostTarget mastodon(String name, MastodonClient client, AuthSession session,
+                                      MediaTranscoder transcoder) {
+        return new PostTarget(name, (deliveryId, createdAt, content, media) -> client.postThread(session,
+                ThreadSplitter.split(content, client.getLimit(session.instanceUrl)),
+                transcoder.transcodeAll(media, MediaTranscoder.MASTODON), deliveryId).get(0));
+    }
+
+    /**
+     * Starts posting the content to all targets concurrently.
+     * @param content The post text.
+     * @param targets The targets to post to.
+     * @return A future per target name, in the order the targets were given.
+     */
+    public Map<String, CompletableFuture<PostResult>> dispatch(String content, List<PostTarget> targets) {
+        return dispatch(Tid.next(), Instant.now(), content, CompletableFuture.completedFuture(List.of()), targets);
+    }
+
+    /**
+     * Starts posting the content with media to all targets concurrently.
+     * @param media The prepared attachments. Every target waits on the same future, so files are
+     *              hashed once however many targets there are, and each target then uploads its copy
+     *              at the same time as the others.
+     */
+    public Map<String, CompletableFuture<PostResult>> dispatch(String content, CompletableFuture<List<MediaFile>> media,
+                                                               List<PostTarget> targets) {
+        return dispatch(Tid.next(), Instant.now(), content, media, targets);
+    }
+
+    /**
+     * Like {@link #dispatch(String, CompletableFuture, List)}, for a post that may have been sent
+     * before: dispatching the same delivery id (and createdAt) again doesn't post twice to a target
+     * that already has it.
+     */
+    public Map<String, CompletableFuture<PostResult>> dispatch(String deliveryId, Instant createdAt, String content,
+                                                               CompletableFuture<List<MediaFile>> media,
+                                                               List<PostTarget> targets) {
+        Map<String, CompletableFuture<PostResult>> results = new LinkedHashMap<>();
+        for (PostTarget target : targets) {
+            CompletableFuture<PostResult> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    future.complete(target.action().post(deliveryId, createdAt, content, awaitMedia(media)));
+                    recordPost(target, "ok", start);
+                } catch (Throwable t) {
+                    recordPost(target, "failed", start);
+                    future.completeExceptionally(t);
+                }
+            });
+            results.put(target.name(), future);
+        }
+        return results;
+    }
+
+    private static List<MediaFile> awaitMedia(CompletableFuture<List<MediaFile>> media) throws Exception {
+        try {
+            return media.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    // End-to-end latency per platform (not per account, to keep the series count bounded)
+    private static void recordPost(PostTarget target, String outcome, long start) {
+        String name = target.name();
+        int sep = name.indexOf(':');
+        String platform = sep < 0 ? name : name.substring(0, sep);
+        Metrics.recordNanos("crossposter_post_seconds", System.nanoTime() - start, "target", platform, "outcome", outcome);
+        Metrics.increment("crossposter_posts", "target", platform, "outcome", outcome);
+    }
+
+    /**
+     * Completes once every target has finished, successfully or not.
+     */
+    public static CompletableFuture<Void> allSettled(Map<String, CompletableFuture<PostResult>> results) {
+        return CompletableFuture.allOf(results.values().stream()
+                .map(f -> f.handle((r, e) -> null))
+                .toArray(CompletableFuture[]::new));
+    }
+}
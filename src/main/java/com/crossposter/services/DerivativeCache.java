@@ -0,0 +1,153 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.StorageUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of transcoded media, keyed by the source file's SHA-256 and the target profile.
+ * Files are named {@code <key>.<sha256 of derivative>.<ext>}, so the index is rebuilt from a
+ * directory listing without reading any file. Least recently used entries are evicted once the
+ * total size goes over the limit; a file's modification time records its last use across restarts.
+ */
+public class DerivativeCache {
+    // Overridable with -Dcrossposter.mediaCache.maxBytes
+    public static final long DEFAULT_MAX_BYTES = Long.getLong("crossposter.mediaCache.maxBytes", 256L * 1024 * 1024);
+
+    // Entries this recent may be about to be uploaded, so they outlive the size limit for a while
+    private static final long IN_USE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * A cached derivative.
+     */
+    public record Entry(String key, Path path, long size, String sha256) {}
+
+    private final Path dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> lastUsed = new LinkedHashMap<>();
+    private long totalBytes;
+
+    public DerivativeCache() throws IOException {
+        this(StorageUtil.dataFile("media-cache"), DEFAULT_MAX_BYTES);
+    }
+
+    public DerivativeCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * @return the cached derivative, or null on a miss
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (!Files.exists(entry.path())) {
+            remove(key);
+            return null;
+        }
+        touch(entry);
+        return entry;
+    }
+
+    /**
+     * Stores a derivative and evicts old entries if the cache is over its size limit.
+     * @param extension file extension without the dot (e.g. jpg)
+     */
+    public Entry put(String key, byte[] data, String sha256, String extension) throws IOException {
+        // Written outside the lock; the name is unique per content, so concurrent writers can't collide
+        Path path = dir.resolve(key + "." + sha256 + "." + extension);
+        StorageUtil.writeAtomically(path, data);
+        Entry entry = new Entry(key, path, data.length, sha256);
+
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.size();
+                if (!previous.path().equals(path)) deleteQuietly(previous.path());
+            }
+            totalBytes += entry.size();
+            lastUsed.put(key, System.currentTimeMillis());
+            evict();
+        }
+        return entry;
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    private void load() throws IOException {
+        record Found(Entry entry, FileTime modified) {}
+        List<Found> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                String[] parts = path.getFileName().toString().split("\\.");
+                if (parts.length != 3) {
+                    // Leftover temp file from an interrupted write
+                    deleteQuietly(path);
+                    continue;
+                }
+                found.add(new Found(new Entry(parts[0], path, Files.size(path), parts[1]), Files.getLastModifiedTime(path)));
+            }
+        }
+        // Oldest first, so the access-ordered map starts out in LRU order
+        found.sort(Comparator.comparing(Found::modified));
+        for (Found f : found) {
+            entries.put(f.entry().key(), f.entry());
+            totalBytes += f.entry().size();
+        }
+        evict();
+    }
+
+    private void touch(Entry entry) {
+        long now = System.currentTimeMillis();
+        lastUsed.put(entry.key(), now);
+        try {
+            Files.setLastModifiedTime(entry.path(), FileTime.fromMillis(now));
+        } catch (IOException ignored) {
+            // Only affects eviction order after a restart
+        }
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> lru = entries.values().iterator();
+        while (totalBytes > maxBytes && lru.hasNext()) {
+            Entry entry = lru.next();
+            Long used = lastUsed.get(entry.key());
+            if (used != null && now - used < IN_USE_MILLIS) continue;
+            lru.remove();
+            lastUsed.remove(entry.key());
+            totalBytes -= entry.size();
+            deleteQuietly(entry.path());
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        lastUsed.remove(key);
+        if (entry != null) totalBytes -= entry.size();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Media cache: could not delete " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Facet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the links, @mentions and #tags in a post and describes them as Bluesky rich-text facets,
+ * which is what makes them clickable. Facet offsets are UTF-8 byte positions; they are counted
+ * while scanning the text once, rather than by encoding each prefix.
+ */
+public class FacetBuilder {
+
+    // One pass finds all three kinds. Each must start the text or follow whitespace or '('.
+    private static final Pattern TOKEN = Pattern.compile(
+            "(?<![^\\s(])(?:"
+                    + "(?<url>https?://\\S+)"
+                    + "|@(?<handle>(?:[a-zA-Z0-9](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?\\.)+[a-zA-Z](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?)\\b"
+                    + "|[#\\uFF03](?<tag>[^\\s\\u00AD\\u2060\\u200A-\\u200D\\u20E2]+)"
+                    + ")");
+
+    private static final Pattern URL_TRAILING_PUNCTUATION = Pattern.compile("[.,;:!?'\"]+$");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("\\p{P}+$");
+    private static final Pattern NUMERIC = Pattern.compile("\\d+");
+    private static final int MAX_TAG_LENGTH = 64;
+
+    /**
+     * @return the handles mentioned in the text, lowercased, without the '@'
+     */
+    public static Set<String> mentions(String text) {
+        Set<String> handles = new LinkedHashSet<>();
+        Matcher m = TOKEN.matcher(text);
+        while (m.find()) {
+            if (m.group("handle") != null) {
+                handles.add(m.group("handle").toLowerCase(Locale.ROOT));
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * Builds the facets for the text, in order of appearance.
+     * @param didsByHandle resolved mentions (see {@link #mentions}); mentions missing from it stay plain text
+     */
+    public static List<Facet> build(String text, Map<String, String> didsByHandle) {
+        List<Facet> facets = new ArrayList<>();
+        Matcher m = TOKEN.matcher(text);
+        int charPos = 0;
+        int bytePos = 0;
+        while (m.find()) {
+            int start = m.start();
+            int end = m.end();
+            Facet.Feature feature = null;
+
+            if (m.group("url") != null) {
+                String url = trimUrl(m.group("url"));
+                end = start + url.length();
+                feature = new Facet.Link(Facet.LINK, url);
+            } else if (m.group("handle") != null) {
+                String did = didsByHandle.get(m.group("handle").toLowerCase(Locale.ROOT));
+                if (did != null) feature = new Facet.Mention(Facet.MENTION, did);
+            } else {
+                String tag = TRAILING_PUNCTUATION.matcher(m.group("tag")).replaceAll("");
+                if (!tag.isEmpty() && tag.length() <= MAX_TAG_LENGTH && !NUMERIC.matcher(tag).matches()) {
+                    end = m.start("tag") + tag.length();
+                    feature = new Facet.Tag(Facet.TAG, tag);
+                }
+            }
+            if (feature == null) continue;
+
+            int byteStart = bytePos + utf8Length(text, charPos, start);
+            int byteEnd = byteStart + utf8Length(text, start, end);
+            facets.add(new Facet(new Facet.Index(byteStart, byteEnd), List.of(feature)));
+            charPos = end;
+            bytePos = byteEnd;
+        }
+        return facets;
+    }
+
+    // Sentence punctuation after a link isn't part of it, nor is a ')' closing a parenthesis
+    private static String trimUrl(String url) {
+        String trimmed = URL_TRAILING_PUNCTUATION.matcher(url).replaceAll("");
+        if (trimmed.endsWith(")") && trimmed.indexOf('(') < 0) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    // Number of bytes the UTF-8 encoding of text[from, to) takes
+    static int utf8Length(CharSequence text, int from, int to) {
+        int bytes = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
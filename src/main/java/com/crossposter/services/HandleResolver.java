@@ -0,0 +1,129 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.HttpUtil;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.Metrics;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves Bluesky handles to DIDs with com.atproto.identity.resolveHandle, for mention facets.
+ * Results are kept in a bounded LRU cache with a TTL (handles can move to another DID, so not
+ * forever); handles that don't exist are remembered for a shorter time. Concurrent lookups of the
+ * same handle share one request, and {@link #resolveAll} looks every handle up at once.
+ */
+public class HandleResolver {
+    // Overridable with -Dcrossposter.handles.ttlSeconds
+    private static final Duration TTL = Duration.ofSeconds(Long.getLong("crossposter.handles.ttlSeconds", 3600));
+    private static final Duration NOT_FOUND_TTL = Duration.ofMinutes(5);
+    private static final int MAX_ENTRIES = 1024;
+
+    // did is null for a handle that doesn't resolve
+    private record Entry(String did, long expiresAt) {}
+
+    private final String serviceUrl;
+    private final Map<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public HandleResolver() {
+        // Public AppView: resolving someone else's handle needs no auth
+        this("https://public.api.bsky.app");
+    }
+
+    public HandleResolver(String serviceUrl) {
+        this.serviceUrl = serviceUrl;
+    }
+
+    /**
+     * @return the handle's DID, or null if the handle doesn't exist
+     */
+    public CompletableFuture<String> resolveAsync(String handle) {
+        synchronized (cache) {
+            Entry cached = cache.get(handle);
+            if (cached != null && System.currentTimeMillis() < cached.expiresAt()) {
+                Metrics.increment("crossposter_handle_cache", "result", "hit");
+                return CompletableFuture.completedFuture(cached.did());
+            }
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(handle, created);
+        if (existing != null) {
+            return existing;
+        }
+        Metrics.increment("crossposter_handle_cache", "result", "miss");
+
+        String url = serviceUrl + "/xrpc/com.atproto.identity.resolveHandle?handle=" + URLEncoder.encode(handle, StandardCharsets.UTF_8);
+        HttpUtil.getJsonAsync(url, Map.of("Accept", "application/json"), in -> JsonUtil.extractStrings(in, "did"))
+                .thenApply(response -> toEntry(handle, response))
+                .whenComplete((entry, error) -> {
+                    inFlight.remove(handle, created);
+                    if (error != null) {
+                        created.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    } else {
+                        created.complete(entry.did());
+                    }
+                });
+        return created;
+    }
+
+    /**
+     * Resolves the handles in parallel. Handles that don't exist, or can't be looked up right now,
+     * are left out; the post still goes out with those mentions as plain text.
+     * @return DIDs by handle
+     */
+    public CompletableFuture<Map<String, String>> resolveAll(Collection<String> handles) {
+        Map<String, CompletableFuture<String>> lookups = new LinkedHashMap<>();
+        for (String handle : handles) {
+            lookups.put(handle, resolveAsync(handle).handle((did, error) -> {
+                if (error != null) {
+                    System.out.println("Could not resolve @" + handle + ": " + error.getMessage());
+                    return null;
+                }
+                return did;
+            }));
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            Map<String, String> dids = new HashMap<>();
+            lookups.forEach((handle, lookup) -> {
+                String did = lookup.join();
+                if (did != null) dids.put(handle, did);
+            });
+            return dids;
+        });
+    }
+
+    private Entry toEntry(String handle, HttpResponse<HttpUtil.JsonBody<String[]>> response) {
+        Entry entry;
+        try {
+            String did = response.body().get()[0];
+            entry = new Entry(did, System.currentTimeMillis() + TTL.toMillis());
+        } catch (IOException e) {
+            // 400 is how the XRPC endpoint says "Unable to resolve handle"; anything else is worth retrying
+            if (response.statusCode() != 400) {
+                throw new CompletionException(e);
+            }
+            entry = new Entry(null, System.currentTimeMillis() + NOT_FOUND_TTL.toMillis());
+        }
+        synchronized (cache) {
+            cache.put(handle, entry);
+        }
+        return entry;
+    }
+}
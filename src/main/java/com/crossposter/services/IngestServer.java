@@ -0,0 +1,290 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Attachment;
+import com.crossposter.models.PostResult;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.Metrics;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP API for the headless daemon. Requests are handled on virtual threads and connections
+ * are kept alive, so scripts can push many posts over one connection.
+ *
+ * <pre>
+ * GET  /v1/health                  {"ok": true, "pending": 0}
+ * GET  /v1/accounts                connected accounts
+ * POST /v1/posts[?async=true]      {"text": "...", "targets": ["Bluesky", "Mastodon:me@host"],
+ *                                   "media": [{"path": "/abs/photo.jpg", "alt": "..."}]} or an array of them
+ * POST /v1/login/bluesky           {"pds": "https://bsky.social"}
+ * POST /v1/login/mastodon          {"instance": "me@mastodon.social"}
+ * </pre>
+ *
+ * A target is a platform name or the id of a connected account; a post naming anything else is
+ * rejected with 400. Posts without targets go to every connected account. Posts are journaled in the outbox before
+ * delivery; by default the response waits for every target (one left to retry later is reported as
+ * "queued"), with ?async=true it returns 202 once
+ * the posts are journaled. If -Dcrossposter.daemon.token is set, requests need
+ * "Authorization: Bearer &lt;token&gt;".
+ */
+public class IngestServer {
+
+    private static final List<String> PLATFORMS = List.of(CrosspostDispatcher.BLUESKY, CrosspostDispatcher.MASTODON);
+
+    // Built on first use, so the listener comes up without waiting for Jackson to initialize
+    private static final class Codec {
+        static final ObjectReader POST_READER = JsonUtil.MAPPER.readerFor(BulkPostPipeline.BulkPost.class);
+        static final ObjectReader POSTS_READER = JsonUtil.MAPPER.readerForListOf(BulkPostPipeline.BulkPost.class);
+        static final ObjectReader LOGIN_READER = JsonUtil.MAPPER.readerFor(LoginRequest.class);
+        static final ObjectWriter WRITER = JsonUtil.MAPPER.writer();
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Outcome(String status, String ref, String error) {}
+
+    record PostResponse(Map<String, Outcome> results) {}
+
+    record AccountView(String id, String platform, String label) {}
+
+    record LoginRequest(String pds, String instance) {}
+
+    private final int port;
+    private final String token;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpServer server;
+
+    public IngestServer(int port, String token) {
+        this.port = port;
+        this.token = token == null || token.isBlank() ? null : token;
+    }
+
+    /**
+     * Starts the HTTP server on 127.0.0.1.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/health", exchange -> handle(exchange, "GET", this::health));
+        server.createContext("/v1/accounts", exchange -> handle(exchange, "GET", this::accounts));
+        server.createContext("/v1/posts", exchange -> handle(exchange, "POST", this::posts));
+        server.createContext("/v1/login/", exchange -> handle(exchange, "POST", this::login));
+        server.start();
+        System.out.println("Ingest API listening on http://127.0.0.1:" + port + "/v1");
+    }
+
+    /**
+     * Stops accepting requests, giving in-flight exchanges a moment to finish.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+        }
+        executor.shutdown();
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, byte[] body) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        try {
+            // Always consume the request body so the connection can be reused
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (!authorized(exchange)) {
+                send(exchange, 401, Map.of("error", "missing or invalid bearer token"));
+            } else if (!method.equals(exchange.getRequestMethod())) {
+                send(exchange, 405, Map.of("error", "use " + method));
+            } else {
+                handler.handle(exchange, body);
+            }
+        } catch (IllegalArgumentException | JacksonException e) {
+            sendError(exchange, 400, e);
+        } catch (Exception e) {
+            System.out.println("Ingest API: " + exchange.getRequestURI() + " failed: " + e.getMessage());
+            sendError(exchange, 500, e);
+        } finally {
+            Metrics.recordNanos("crossposter_ingest_request_seconds", System.nanoTime() - start,
+                    "path", exchange.getHttpContext().getPath(), "status", Integer.toString(exchange.getResponseCode()));
+            exchange.close();
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        if (token == null) return true;
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) return false;
+        return MessageDigest.isEqual(header.substring(7).getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void health(HttpExchange exchange, byte[] body) throws IOException {
+        send(exchange, 200, Map.of("ok", true, "pending", ServiceRegistry.getOutbox().pendingCount()));
+    }
+
+    private void accounts(HttpExchange exchange, byte[] body) throws IOException {
+        List<AccountView> accounts = ServiceRegistry.getSessionStore().all().stream()
+                .map(a -> new AccountView(a.key().id(), a.key().platform(), a.label()))
+                .toList();
+        send(exchange, 200, accounts);
+    }
+
+    private void posts(HttpExchange exchange, byte[] body) throws IOException {
+        boolean batch = firstToken(body) == '[';
+        List<BulkPostPipeline.BulkPost> posts;
+        if (batch) {
+            posts = Codec.POSTS_READER.readValue(body);
+        } else {
+            BulkPostPipeline.BulkPost post = Codec.POST_READER.readValue(body);
+            posts = List.of(post);
+        }
+        boolean async = "async=true".equals(exchange.getRequestURI().getQuery());
+
+        // Validate the whole batch before journaling any of it
+        List<String> everyAccount = ServiceRegistry.getSessionStore().all().stream().map(a -> a.key().id()).toList();
+        List<List<String>> targetsPerPost = new ArrayList<>(posts.size());
+        for (BulkPostPipeline.BulkPost post : posts) {
+            if (post == null || post.text() == null || post.text().isBlank()) {
+                throw new IllegalArgumentException("every post needs a non-empty \"text\"");
+            }
+            List<String> targets = post.targets() == null || post.targets().isEmpty() ? everyAccount : post.targets();
+            if (targets.isEmpty()) {
+                throw new IllegalArgumentException("no targets given and no accounts connected");
+            }
+            // A platform waits in the outbox until it has an account; anything else must be one already
+            for (String target : targets) {
+                if (!PLATFORMS.contains(target) && !everyAccount.contains(target)) {
+                    throw new IllegalArgumentException("unknown target: " + target
+                            + " (expected " + String.join(" or ", PLATFORMS) + ", or an account id from /v1/accounts)");
+                }
+            }
+            if (post.media() != null) {
+                for (Attachment attachment : post.media()) {
+                    if (attachment == null || attachment.path() == null || !Files.isRegularFile(Path.of(attachment.path()))) {
+                        throw new IllegalArgumentException("media file not found: " + (attachment == null ? null : attachment.path()));
+                    }
+                }
+            }
+            targetsPerPost.add(targets);
+        }
+
+        List<Map<String, CompletableFuture<PostResult>>> submitted = new ArrayList<>(posts.size());
+        for (int i = 0; i < posts.size(); i++) {
+            BulkPostPipeline.BulkPost post = posts.get(i);
+            submitted.add(ServiceRegistry.getOutbox().submit(post.text(), post.media() == null ? List.of() : post.media(), targetsPerPost.get(i)));
+        }
+
+        if (async) {
+            send(exchange, 202, Map.of("accepted", posts.size()));
+            return;
+        }
+
+        List<PostResponse> responses = new ArrayList<>(submitted.size());
+        for (int i = 0; i < submitted.size(); i++) {
+            Map<String, CompletableFuture<PostResult>> results = submitted.get(i);
+            Map<String, Outcome> outcomes = new LinkedHashMap<>();
+            for (String target : targetsPerPost.get(i)) {
+                CompletableFuture<PostResult> future = results.get(target);
+                // Targets that aren't connected stay in the outbox until they are
+                outcomes.put(target, future != null ? outcomeOf(future) : new Outcome("queued", null, "account not connected"));
+            }
+            responses.add(new PostResponse(outcomes));
+        }
+        send(exchange, 200, batch ? responses : responses.get(0));
+    }
+
+    private void login(HttpExchange exchange, byte[] body) throws IOException {
+        String platform = exchange.getRequestURI().getPath().substring("/v1/login/".length());
+        LoginRequest request = body.length == 0 ? new LoginRequest(null, null) : Codec.LOGIN_READER.readValue(body);
+
+        Runnable flow;
+        switch (platform) {
+            case "bluesky" -> {
+                String pds = request.pds() != null ? request.pds() : "https://bsky.social";
+                flow = () -> loginBluesky(pds);
+            }
+            case "mastodon" -> {
+                if (request.instance() == null) throw new IllegalArgumentException("\"instance\" is required");
+                flow = () -> loginMastodon(request.instance());
+            }
+            default -> {
+                send(exchange, 404, Map.of("error", "unknown platform: " + platform));
+                return;
+            }
+        }
+
+        // The OAuth flow waits on the browser callback, so run it in the background and print the URL
+        Thread.ofVirtual().name("login-" + platform).start(flow);
+        send(exchange, 202, Map.of("status", "open the authorization URL printed on the daemon's console"));
+    }
+
+    private static void loginBluesky(String pds) {
+        try {
+            AuthSession session = ServiceRegistry.getBlueskyClient().startAuth(pds);
+            System.out.println("Connected " + ServiceRegistry.addBlueskySession(session).key().id());
+        } catch (Exception e) {
+            System.out.println("Bluesky login failed: " + e.getMessage());
+        }
+    }
+
+    private static void loginMastodon(String instance) {
+        try {
+            AuthSession session = ServiceRegistry.getMastodonClient().startAuth(instance);
+            System.out.println("Connected " + ServiceRegistry.addMastodonSession(session).key().id());
+        } catch (Exception e) {
+            System.out.println("Mastodon login failed: " + e.getMessage());
+        }
+    }
+
+    private static Outcome outcomeOf(CompletableFuture<PostResult> future) {
+        try {
+            PostResult result = future.join();
+            return new Outcome("ok", result == null ? null : result.ref(), null);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            // Still in the outbox and retried from there; posting it again would post it twice
+            if (cause instanceof Outbox.Queued) return new Outcome("queued", null, cause.getMessage());
+            return new Outcome("error", null, String.valueOf(cause.getMessage()));
+        }
+    }
+
+    private static int firstToken(byte[] body) {
+        for (byte b : body) {
+            if (!Character.isWhitespace(b)) return b;
+        }
+        throw new IllegalArgumentException("empty request body");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, Exception e) throws IOException {
+        // Headers may already be out if the failure happened while writing the response
+        if (exchange.getResponseCode() == -1) {
+            send(exchange, status, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object value) throws IOException {
+        byte[] bytes = Codec.WRITER.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
@@ -1,11 +1,24 @@
 package com.crossposter.services;
 
+import com.crossposter.models.AppRegistration;
+import com.crossposter.models.Instance;
+import com.crossposter.models.MediaAttachment;
+import com.crossposter.models.PostResult;
+import com.crossposter.models.Profile;
+import com.crossposter.models.Status;
+import com.crossposter.models.StatusRequest;
+import com.crossposter.models.TokenResponse;
+import com.crossposter.utils.BrowserUtil;
+import com.crossposter.utils.HttpException;
 import com.crossposter.utils.HttpUtil;
+import com.crossposter.utils.JsonUtil;
 import com.crossposter.utils.LocalCallbackServer;
+import com.crossposter.utils.Metrics;
+import com.crossposter.utils.Tid;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
-import java.awt.Desktop;
 import java.io.IOException;
 import java.net.URI;
 import java.net.Socket;
@@ -13,30 +26,41 @@ import java.net.InetSocketAddress;
 import java.net.URLEncoder;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class MastodonClient {
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-    
+    private static final ObjectReader APP_READER = JsonUtil.MAPPER.readerFor(AppRegistration.class);
+    private static final ObjectReader TOKEN_READER = JsonUtil.MAPPER.readerFor(TokenResponse.class);
+    private static final ObjectReader STATUS_READER = JsonUtil.MAPPER.readerFor(Status.class);
+    private static final ObjectReader MEDIA_READER = JsonUtil.MAPPER.readerFor(MediaAttachment.class);
+    private static final ObjectReader INSTANCE_READER = JsonUtil.MAPPER.readerFor(Instance.class);
+    private static final ObjectWriter STATUS_WRITER = JsonUtil.MAPPER.writerFor(StatusRequest.class);
+
+    // Polling backoff while the instance processes an upload
+    private static final long MEDIA_POLL_INITIAL_MS = 500;
+    private static final long MEDIA_POLL_MAX_MS = 5_000;
+    private static final Duration MEDIA_PROCESSING_TIMEOUT = Duration.ofMinutes(5);
+
     private static final String CLIENT_NAME = "crossposter";
     private static final String REDIRECT_URI = "http://127.0.0.1:8080/callback";
     private static final String SCOPES = "read write follow";
 
-    private final Map<String, InstanceCredentials> instanceCredentials = new HashMap<>();
-
-    private static class InstanceCredentials {
-        final String clientId;
-        final String clientSecret;
-
-        InstanceCredentials(String clientId, String clientSecret) {
-            this.clientId = clientId;
-            this.clientSecret = clientSecret;
-        }
-    }
+    private final AppRegistrationCache appRegistrations = new AppRegistrationCache();
+    private final Map<String, CompletableFuture<ThreadSplitter.Limit>> limits = new ConcurrentHashMap<>();
+    private final ProfileCache profileCache = new ProfileCache("mastodon-profiles.json");
+    private volatile Consumer<AuthSession> sessionListener = session -> {};
 
     // Regular expression to match a basic handle (username@domain)
     private static final Pattern HANDLE_PATTERN = Pattern.compile("^([^@]+)@([\\w.-]+)$");
@@ -87,7 +111,11 @@ public class MastodonClient {
     }
 
 
-    public InstanceCredentials registerApp(String instanceUrl) throws Exception {
+    /**
+     * Registers this app on the instance. Use {@link #registration} instead, which reuses earlier
+     * registrations.
+     */
+    public AppRegistration registerApp(String instanceUrl) throws Exception {
         String appsEndpoint = instanceUrl + "/api/v1/apps";
 
         Map<String, String> appParams = Map.of(
@@ -102,23 +130,46 @@ public class MastodonClient {
         var response = HttpUtil.postFormWithResponse(appsEndpoint, headers, requestBody);
 
         if (response.statusCode() != 200) {
-            throw new IOException("App registration failed with status: " + response.statusCode() + ", body: " + response.body());
+            throw HttpException.of(response, "App registration failed");
         }
 
-        Map<String, Object> appData = MAPPER.readValue(response.body(), Map.class);
-        String clientId = (String) appData.get("client_id");
-        String clientSecret = (String) appData.get("client_secret");
+        AppRegistration app = APP_READER.readValue(response.body());
+        String clientId = app.clientId();
+        String clientSecret = app.clientSecret();
 
         if (clientId == null || clientSecret == null) {
             throw new IOException("App registration response missing client_id or client_secret: " + response.body());
         }
 
-        InstanceCredentials creds = new InstanceCredentials(clientId, clientSecret);
-        instanceCredentials.put(instanceUrl, creds);
         System.out.println("Registered app on " + instanceUrl + ", Client ID: " + clientId);
+        return app;
+    }
+
+    /**
+     * Returns this app's registration on the instance, registering it only the first time. Saved
+     * credentials are checked with a client_credentials grant first: a revoked registration would
+     * otherwise only show up as an error page in the browser.
+     */
+    public AppRegistration registration(String instanceUrl) throws Exception {
+        boolean saved = appRegistrations.peek(instanceUrl) != null;
+        AppRegistration creds = appRegistrations.get(instanceUrl, this::registerApp);
+        if (saved) {
+            String body = String.format("grant_type=client_credentials&client_id=%s&client_secret=%s&scope=read",
+                    urlenc(creds.clientId()), urlenc(creds.clientSecret()));
+            var response = HttpUtil.postFormWithResponse(instanceUrl + "/oauth/token",
+                    Map.of("Content-Type", "application/x-www-form-urlencoded"), body);
+            if (isInvalidClient(response)) {
+                creds = appRegistrations.replace(instanceUrl, creds, this::registerApp);
+            }
+        }
         return creds;
     }
 
+    // How the token endpoint rejects a client_id/client_secret it doesn't know
+    private static boolean isInvalidClient(HttpResponse<String> response) {
+        return (response.statusCode() == 400 || response.statusCode() == 401) && response.body().contains("invalid_client");
+    }
+
     /**
      * Starts the OAuth flow using a user-provided handle or instance URL.
      * Resolves the handle/URL to the instance URL, registers the app if necessary,
@@ -131,18 +182,14 @@ public class MastodonClient {
         String instanceUrl = resolveInstanceUrl(userInput);
         System.out.println("Resolved user input '" + userInput + "' to instance URL: " + instanceUrl);
 
-        // Check if credentials are available, register if not
-        InstanceCredentials creds = instanceCredentials.get(instanceUrl);
-        if (creds == null) {
-            creds = registerApp(instanceUrl);
-        }
+        AppRegistration creds = registration(instanceUrl);
 
         AuthSession session = new AuthSession(null);
         String authEndpoint = instanceUrl + "/oauth/authorize";
 
         String state = UUID.randomUUID().toString();
         String authUrl = authEndpoint +
-                "?client_id=" + urlenc(creds.clientId) +
+                "?client_id=" + urlenc(creds.clientId()) +
                 "&redirect_uri=" + urlenc(REDIRECT_URI) +
                 "&response_type=code" +
                 "&scope=" + urlenc(SCOPES) +
@@ -153,17 +200,8 @@ public class MastodonClient {
             callbackServer.start();
             waitForLocalServer("127.0.0.1", 8080, 2000);
             
-            // Open system browser. If Desktop fails, print URL so caller can open manually.
-            try {
-                if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(java.awt.Desktop.Action.BROWSE)) {
-                    Desktop.getDesktop().browse(URI.create(authUrl));
-                } else {
-                    System.out.println("Open this URL in your browser: " + authUrl);
-                }
-            } catch (Exception e) {
-                System.out.println("Failed to open system browser: " + e.getMessage());
-                System.out.println("Open this URL in your browser: " + authUrl);
-            }
+            // Open system browser (or print the URL when headless)
+            BrowserUtil.open(authUrl);
 
             // Wait for callback
             LocalCallbackServer.CallbackResult cb = callbackServer.awaitAuthorizationCode(180);
@@ -174,7 +212,7 @@ public class MastodonClient {
             String tokenEndpoint = instanceUrl + "/oauth/token";
             String tokenBody = String.format(
                 "client_id=%s&client_secret=%s&code=%s&grant_type=authorization_code&redirect_uri=%s",
-                urlenc(creds.clientId), urlenc(creds.clientSecret), urlenc(cb.code()), urlenc(REDIRECT_URI)
+                urlenc(creds.clientId()), urlenc(creds.clientSecret()), urlenc(cb.code()), urlenc(REDIRECT_URI)
             );
 
             Map<String, String> tokenHeaders = Map.of(
@@ -182,15 +220,20 @@ public class MastodonClient {
             );
 
             var tokenResponse = HttpUtil.postFormWithResponse(tokenEndpoint, tokenHeaders, tokenBody);
+            if (isInvalidClient(tokenResponse)) {
+                appRegistrations.replace(instanceUrl, creds, this::registerApp);
+                throw new IOException("The instance rejected this app's registration; it has been renewed. Please log in again.");
+            }
 
             if (tokenResponse.statusCode() != 200) {
-                throw new IOException("Token exchange failed with status: " + tokenResponse.statusCode() + ", body: " + tokenResponse.body());
+                throw HttpException.of(tokenResponse, "Token exchange failed");
             }
 
-            Map<String, Object> tokenData = MAPPER.readValue(tokenResponse.body(), Map.class);
-            String accessToken = (String) tokenData.get("access_token");
-            String refreshToken = (String) tokenData.get("refresh_token");
-            String tokenType = (String) tokenData.get("token_type");
+            TokenResponse token = TOKEN_READER.readValue(tokenResponse.body());
+            String accessToken = token.accessToken();
+            String refreshToken = token.refreshToken();
+            String tokenType = token.tokenType();
+            Long expiresIn = token.expiresIn();
 
             // Check for errors
             if (accessToken == null) {
@@ -204,6 +247,7 @@ public class MastodonClient {
             session.accessToken = accessToken;
             session.refreshToken = refreshToken;
             session.instanceUrl = instanceUrl;
+            setExpiry(session, expiresIn);
             session.handle = getHandle(session);
 
             return session;
@@ -232,35 +276,264 @@ public class MastodonClient {
         }
     }
 
-    public Map<String, Object> postStatus(AuthSession session, String content) throws Exception {
+    /**
+     * Called after a session's tokens are refreshed (in the background or on a rejected request),
+     * e.g. to persist them.
+     */
+    public void setSessionListener(Consumer<AuthSession> listener) {
+        this.sessionListener = listener;
+    }
+
+    /**
+     * Exchanges the session's refresh token for a new access token.
+     * Only applies to instances that issue a refresh_token with an expires_in. Does nothing if
+     * another refresh of the session replaced the tokens while this one waited for it.
+     * @param session The authenticated session to refresh in place.
+     * @throws Exception If the instance rejects the refresh.
+     */
+    public void refreshSession(AuthSession session) throws Exception {
+        String tokenUsed = session.accessToken;
+        session.refreshLock.lock();
+        try {
+            // Another caller rotated the tokens while this one waited; its refresh token is spent
+            if (!Objects.equals(tokenUsed, session.accessToken)) {
+                return;
+            }
+            String refreshToken = session.refreshToken;
+            if (refreshToken == null) {
+                throw new IOException("No refresh token available. Please log in again.");
+            }
+            AppRegistration creds = appRegistrations.peek(session.instanceUrl);
+            if (creds == null) {
+                throw new IOException("No app registration for " + session.instanceUrl + ". Please log in again.");
+            }
+
+            String tokenBody = String.format(
+                "client_id=%s&client_secret=%s&grant_type=refresh_token&refresh_token=%s",
+                urlenc(creds.clientId()), urlenc(creds.clientSecret()), urlenc(refreshToken)
+            );
+            Map<String, String> headers = Map.of("Content-Type", "application/x-www-form-urlencoded");
+
+            var response = HttpUtil.postFormWithResponse(session.instanceUrl + "/oauth/token", headers, tokenBody);
+            if (isInvalidClient(response)) {
+                // The refresh token belongs to the old registration, so only a new login can recover
+                appRegistrations.replace(session.instanceUrl, creds, this::registerApp);
+                throw new IOException("Token refresh failed: app registration on " + session.instanceUrl + " was revoked. Please log in again.");
+            }
+            if (response.statusCode() != 200) {
+                throw HttpException.of(response, "Token refresh failed");
+            }
+
+            TokenResponse token = TOKEN_READER.readValue(response.body());
+            session.accessToken = token.accessToken();
+            if (token.refreshToken() != null) {
+                session.refreshToken = token.refreshToken();
+            }
+            setExpiry(session, token.expiresIn());
+        } finally {
+            session.refreshLock.unlock();
+        }
+        System.out.println("Mastodon token refreshed for " + session.instanceUrl);
+        sessionListener.accept(session);
+    }
+
+    private static void setExpiry(AuthSession session, Long expiresIn) {
+        session.issuedAt = Instant.now();
+        session.expiresAt = expiresIn != null ? session.issuedAt.plusSeconds(expiresIn) : null;
+    }
+
+    public PostResult postStatus(AuthSession session, String content) throws Exception {
+        return postStatus(session, content, List.of());
+    }
+
+    /**
+     * Uploads the media (in parallel, waiting for the server to process each file) and posts a
+     * status with them attached.
+     */
+    public PostResult postStatus(AuthSession session, String content, List<MediaFile> media) throws Exception {
+        return postThread(session, List.of(content), media).get(0);
+    }
+
+    public List<PostResult> postThread(AuthSession session, List<String> parts, List<MediaFile> media) throws Exception {
+        return postThread(session, parts, media, Tid.next());
+    }
+
+    /**
+     * Posts a thread: the first part (with the media) as a status, and each following part as a
+     * reply to the one before it, sent as soon as its parent's id comes back.
+     * <p>
+     * Each status is sent with an Idempotency-Key derived from the delivery id. For an hour after
+     * the first attempt, the instance answers a repeated request with the status it already
+     * created, so a retried thread picks up where it stopped.
+     * @param parts the thread's text, each part within the instance's limit (see {@link #getLimit})
+     * @param deliveryId identifies this post, kept across retries
+     * @return the created statuses, in order
+     */
+    public List<PostResult> postThread(AuthSession session, List<String> parts, List<MediaFile> media,
+                                       String deliveryId) throws Exception {
         if (session.accessToken == null || session.instanceUrl == null) {
             throw new IllegalStateException("Session is not authenticated or missing instance URL.");
         }
 
+        List<String> mediaIds = media.isEmpty() ? null : MediaFile.uploadAll(media, file -> uploadMedia(session, file));
+
+        List<PostResult> posted = new ArrayList<>(parts.size());
+        for (String part : parts) {
+            String inReplyTo = posted.isEmpty() ? null : posted.get(posted.size() - 1).id();
+            String idempotencyKey = deliveryId + "-" + posted.size();
+            posted.add(createStatus(session, new StatusRequest(part, "public", posted.isEmpty() ? mediaIds : null, inReplyTo),
+                    idempotencyKey));
+        }
+        return posted;
+    }
+
+    private PostResult createStatus(AuthSession session, StatusRequest postBody, String idempotencyKey) throws Exception {
         String postEndpoint = session.instanceUrl + "/api/v1/statuses";
 
         Map<String, String> headers = Map.of(
                 "Authorization", "Bearer " + session.accessToken,
-                "Content-Type", "application/json"
+                "Content-Type", "application/json",
+                "Idempotency-Key", idempotencyKey
         );
 
-        Map<String, Object> postBody = Map.of(
-                "status", content,
-                "visibility", "public" // Or "unlisted", "private", "direct"
-        );
-
-        String jsonBody = MAPPER.writeValueAsString(postBody);
+        long serializeStart = System.nanoTime();
+        String jsonBody = STATUS_WRITER.writeValueAsString(postBody);
+        Metrics.recordNanos("crossposter_phase_seconds", System.nanoTime() - serializeStart, "phase", "serialize");
 
         var postResponse = HttpUtil.postFormWithResponse(postEndpoint, headers, jsonBody);
 
         if (postResponse.statusCode() != 200) {
-             throw new IOException("Post status failed with status: " + postResponse.statusCode() + ", body: " + postResponse.body());
+             throw HttpException.of(postResponse, "Post status failed");
+        }
+
+        Status status = STATUS_READER.readValue(postResponse.body());
+        return new PostResult(status.id(), status.uri(), status.url());
+    }
+
+    /**
+     * The instance's status length limit, from GET /api/v2/instance. Fetched once per instance;
+     * Mastodon's defaults are used if the instance doesn't say, or for now if it can't be reached.
+     */
+    public ThreadSplitter.Limit getLimit(String instanceUrl) {
+        CompletableFuture<ThreadSplitter.Limit> limit = fetchLimit(instanceUrl);
+        try {
+            return limit.join();
+        } catch (RuntimeException e) {
+            // Try again on the next post rather than pinning the default
+            limits.remove(instanceUrl, limit);
+            System.out.println("Could not read the status limit of " + instanceUrl + ": " + e.getMessage());
+            return ThreadSplitter.MASTODON_DEFAULT;
+        }
+    }
+
+    /**
+     * Like {@link #getLimit}, without blocking: the instance's limit if it has been fetched, else
+     * Mastodon's defaults while it is fetched.
+     * @param onFetched run when the limit arrives, if it wasn't there yet
+     */
+    public ThreadSplitter.Limit peekLimit(String instanceUrl, Runnable onFetched) {
+        CompletableFuture<ThreadSplitter.Limit> limit = fetchLimit(instanceUrl);
+        if (!limit.isDone()) {
+            limit.thenRun(onFetched);
+            return ThreadSplitter.MASTODON_DEFAULT;
+        }
+        // A failed fetch is retried by the next getLimit
+        return limit.isCompletedExceptionally() ? ThreadSplitter.MASTODON_DEFAULT : limit.join();
+    }
+
+    private CompletableFuture<ThreadSplitter.Limit> fetchLimit(String instanceUrl) {
+        return limits.computeIfAbsent(instanceUrl, url ->
+                HttpUtil.<Instance>getJsonAsync(url + "/api/v2/instance", Map.of("Accept", "application/json"), INSTANCE_READER::readValue)
+                        .thenApply(MastodonClient::limitOf));
+    }
+
+    private static ThreadSplitter.Limit limitOf(HttpResponse<HttpUtil.JsonBody<Instance>> response) {
+        ThreadSplitter.Limit defaults = ThreadSplitter.MASTODON_DEFAULT;
+        if (response.statusCode() != 200) {
+            // Not cached: the caller falls back to the defaults for now and the next call asks again
+            throw new CompletionException(new IOException("Instance info request failed. Status: " + response.statusCode()));
+        }
+
+        Instance instance;
+        try {
+            instance = response.body().get();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        Instance.Statuses statuses = instance.configuration() != null ? instance.configuration().statuses() : null;
+        if (statuses == null) return defaults;
+        return new ThreadSplitter.Limit(
+                statuses.maxCharacters() != null ? statuses.maxCharacters() : defaults.maxGraphemes(),
+                0,
+                statuses.charactersReservedPerUrl() != null ? statuses.charactersReservedPerUrl() : defaults.urlLength());
+    }
+
+    // Streams the file to /api/v2/media. Large files (video especially) are processed asynchronously:
+    // the server answers 202 and the attachment can't be used until GET /api/v1/media/:id has a url.
+    private String uploadMedia(AuthSession session, MediaFile file) throws Exception {
+        Map<String, String> headers = Map.of("Authorization", "Bearer " + session.accessToken);
+
+        List<HttpUtil.Part> parts = new ArrayList<>();
+        parts.add(HttpUtil.Part.file("file", file.path(), file.mimeType()));
+        if (file.alt() != null && !file.alt().isBlank()) {
+            parts.add(HttpUtil.Part.field("description", file.alt()));
+        }
+
+        var response = HttpUtil.postMultipartWithResponse(session.instanceUrl + "/api/v2/media", headers, parts);
+        if (response.statusCode() != 200 && response.statusCode() != 202) {
+            throw HttpException.of(response, "Media upload of " + file.fileName() + " failed");
         }
 
-        return MAPPER.readValue(postResponse.body(), Map.class);
+        MediaAttachment attachment = MEDIA_READER.readValue(response.body());
+        long delay = MEDIA_POLL_INITIAL_MS;
+        long deadline = System.nanoTime() + MEDIA_PROCESSING_TIMEOUT.toNanos();
+        while (attachment.url() == null) {
+            if (System.nanoTime() > deadline) {
+                throw new HttpException(HttpException.Kind.TIMEOUT, 0, null,
+                        "Timed out waiting for " + session.instanceUrl + " to process " + file.fileName(), null);
+            }
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, MEDIA_POLL_MAX_MS);
+
+            var poll = HttpUtil.getWithResponse(session.instanceUrl + "/api/v1/media/" + attachment.id(), headers);
+            if (poll.statusCode() == 206) {
+                continue; // Still processing
+            }
+            if (poll.statusCode() != 200) {
+                throw HttpException.of(poll, "Processing " + file.fileName() + " failed");
+            }
+            attachment = MEDIA_READER.readValue(poll.body());
+        }
+        return attachment.id();
     }
 
+    // Always asks the instance (this is also how a new token is checked), then caches by acct
     public String getHandle(AuthSession session) throws Exception {
+        Profile profile = getProfile(session);
+        profileCache.put(acct(profile.handle(), session.instanceUrl), profile);
+        return profile.handle();
+    }
+
+    // The last known profile (however old), or null; never blocks
+    public Profile cachedProfile(AuthSession session) {
+        return profileCache.peek(acct(session.handle, session.instanceUrl));
+    }
+
+    /**
+     * Re-fetches the account's profile in the background if the cached one is older than its TTL.
+     */
+    public CompletableFuture<Profile> refreshProfile(AuthSession session) {
+        return profileCache.refresh(acct(session.handle, session.instanceUrl), () -> getProfile(session));
+    }
+
+    /**
+     * The account's fully qualified acct (user@instance.host), which identifies it across instances.
+     */
+    public static String acct(String handle, String instanceUrl) {
+        return handle + "@" + URI.create(instanceUrl).getHost();
+    }
+
+    public Profile getProfile(AuthSession session) throws Exception {
         if (session.accessToken == null) {
             throw new IllegalStateException("Warning: Session access token not found.");
         }
@@ -270,15 +543,17 @@ public class MastodonClient {
 
         String handleEndpoint = session.instanceUrl + "/api/v1/accounts/verify_credentials";
         Map<String, String> headers = Map.of("Authorization", "Bearer " + session.accessToken);
-        HttpResponse<String> getResponse = HttpUtil.getWithResponse(handleEndpoint, headers);
+        // Accounts carry large nested objects (fields, emojis, source); only stream out the top-level fields the UI shows
+        HttpResponse<HttpUtil.JsonBody<String[]>> getResponse = HttpUtil.getJson(handleEndpoint, headers,
+                in -> JsonUtil.extractStrings(in, "acct", "display_name", "avatar"));
 
-        if (getResponse.statusCode() != 200)
-            throw new IOException("getProfile failed: " + getResponse.statusCode() + " " + getResponse.body());
-
-        Map<String, Object> data = MAPPER.readValue(getResponse.body(), Map.class);
-        String handle = (String) data.get("acct");
-        
-        return handle;
+        String[] fields;
+        try {
+            fields = getResponse.body().get();
+        } catch (IOException e) {
+            throw new IOException("getProfile failed: " + e.getMessage(), e);
+        }
+        return new Profile(fields[0], fields[1], fields[2]);
     }
 
 
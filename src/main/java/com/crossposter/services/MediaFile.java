@@ -0,0 +1,201 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A media file ready to upload: its type, size and SHA-256 are worked out once, streaming the file
+ * from disk, and the same instance is then shared by every target the post goes to. Uploads stream
+ * the file again from disk, so no file is ever held in memory.
+ * @param sha256 lowercase hex digest of the file contents
+ */
+public record MediaFile(Path path, String mimeType, long size, String sha256, String alt) {
+
+    private static final int HASH_BUFFER_BYTES = 64 * 1024;
+
+    private static final Map<String, String> TYPES_BY_EXTENSION = Map.of(
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "png", "image/png",
+            "gif", "image/gif",
+            "webp", "image/webp",
+            "mp4", "video/mp4",
+            "mov", "video/quicktime",
+            "webm", "video/webm");
+
+    /**
+     * Does one upload, e.g. a single file to a single account.
+     */
+    @FunctionalInterface
+    public interface Upload<T> {
+        T upload(MediaFile file) throws Exception;
+    }
+
+    public boolean isVideo() {
+        return mimeType.startsWith("video/");
+    }
+
+    public String fileName() {
+        return path.getFileName().toString();
+    }
+
+    /**
+     * Stats and hashes an attachment.
+     * @throws IOException if the file can't be read or isn't an image or video
+     */
+    public static MediaFile prepare(Attachment attachment) throws IOException {
+        Path path = Path.of(attachment.path());
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("Attachment not found: " + path);
+        }
+        String mimeType = mimeTypeOf(path);
+        long size = Files.size(path);
+
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[HASH_BUFFER_BYTES];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return new MediaFile(path, mimeType, size, HexFormat.of().formatHex(digest.digest()), attachment.alt());
+    }
+
+    /**
+     * Prepares every attachment in parallel, one virtual thread per file.
+     * @return the prepared files, in the order given
+     */
+    public static CompletableFuture<List<MediaFile>> prepareAll(List<Attachment> attachments) {
+        if (attachments == null || attachments.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return inParallel(attachments, MediaFile::prepare);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, task -> Thread.ofVirtual().name("media-prepare").start(task));
+    }
+
+    /**
+     * Uploads every file in parallel. Files with the same content are uploaded once.
+     * @return one result per file, in the order given
+     */
+    public static <T> List<T> uploadAll(List<MediaFile> files, Upload<T> upload) throws Exception {
+        Map<String, MediaFile> distinct = new LinkedHashMap<>();
+        for (MediaFile file : files) {
+            distinct.putIfAbsent(file.sha256(), file);
+        }
+        List<T> uploaded = inParallel(new ArrayList<>(distinct.values()), upload::upload);
+
+        Map<String, T> bySha = new LinkedHashMap<>();
+        int i = 0;
+        for (String sha : distinct.keySet()) {
+            bySha.put(sha, uploaded.get(i++));
+        }
+        return files.stream().map(f -> bySha.get(f.sha256())).toList();
+    }
+
+    /**
+     * The CID a Bluesky PDS assigns to this file as a blob: CIDv1, raw codec, SHA-256, in base32.
+     */
+    public String blobCid() {
+        byte[] digest = HexFormat.of().parseHex(sha256);
+        byte[] cid = new byte[4 + digest.length];
+        cid[0] = 0x01;               // CIDv1
+        cid[1] = 0x55;               // raw
+        cid[2] = 0x12;               // sha2-256
+        cid[3] = (byte) digest.length;
+        System.arraycopy(digest, 0, cid, 4, digest.length);
+        return "b" + base32(cid);
+    }
+
+    private static <A, T> List<T> inParallel(List<A> items, ParallelTask<A, T> task) throws Exception {
+        if (items.size() == 1) {
+            return List.of(task.run(items.get(0)));
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = new ArrayList<>(items.size());
+            for (A item : items) {
+                futures.add(executor.submit(() -> task.run(item)));
+            }
+            List<T> results = new ArrayList<>(items.size());
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // Stop the rest; closing the executor waits for the interrupted tasks
+                    futures.forEach(f -> f.cancel(true));
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+            return results;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ParallelTask<A, T> {
+        T run(A item) throws Exception;
+    }
+
+    private static String mimeTypeOf(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : TYPES_BY_EXTENSION.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (type == null) {
+            type = Files.probeContentType(path);
+        }
+        if (type == null || !(type.startsWith("image/") || type.startsWith("video/"))) {
+            throw new IOException("Not an image or video: " + path);
+        }
+        return type;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // RFC 4648 base32, lowercase and unpadded, as multibase 'b' expects
+    private static String base32(byte[] data) {
+        final String alphabet = "abcdefghijklmnopqrstuvwxyz234567";
+        StringBuilder out = new StringBuilder((data.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bits = 0;
+        for (byte b : data) {
+            buffer = (buffer << 8) | (b & 0xFF);
+            bits += 8;
+            while (bits >= 5) {
+                out.append(alphabet.charAt((buffer >> (bits - 5)) & 0x1F));
+                bits -= 5;
+            }
+        }
+        if (bits > 0) {
+            out.append(alphabet.charAt((buffer << (5 - bits)) & 0x1F));
+        }
+        return out.toString();
+    }
+}
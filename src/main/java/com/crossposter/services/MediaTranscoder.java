@@ -0,0 +1,319 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.Metrics;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Produces the version of each image a platform should receive: scaled to the platform's limits,
+ * re-encoded without metadata (EXIF orientation is applied first, so photos stay upright), and
+ * under the platform's size cap. Encoding is CPU-bound, so it runs on a ForkJoin pool sized to the
+ * machine rather than on the virtual threads that do the uploads. Results are kept in a
+ * {@link DerivativeCache}, so posting or retrying the same file again doesn't re-encode it.
+ * Videos, GIFs (which may be animated) and formats ImageIO can't decode are passed through.
+ */
+public class MediaTranscoder {
+
+    /**
+     * A platform's image limits. Bump {@code version} when the encoding changes so old
+     * derivatives are not reused.
+     */
+    public record Profile(String name, int version, long maxBytes, int maxDimension, long maxPixels) {
+        String cacheKey(String sha256) {
+            return sha256 + "-" + name + "-v" + version;
+        }
+    }
+
+    // Bluesky rejects image blobs over ~1 MB; its apps scale images to 2000px
+    public static final Profile BLUESKY = new Profile("bluesky", 1, 1_000_000, 2000, 2000L * 2000);
+    // Mastodon accepts up to 16 MB but downsizes anything over 3840x2160 pixels itself
+    public static final Profile MASTODON = new Profile("mastodon", 1, 16L * 1024 * 1024, 3840, 3840L * 2160);
+
+    private static final float[] JPEG_QUALITIES = {0.9f, 0.82f, 0.74f, 0.66f};
+    private static final double SHRINK_STEP = 0.8;
+    private static final int MAX_SHRINKS = 10;
+
+    private final DerivativeCache cache;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final Map<String, CompletableFuture<MediaFile>> inFlight = new ConcurrentHashMap<>();
+
+    public MediaTranscoder(DerivativeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the version of each file to upload for the profile, encoding them in parallel.
+     * @return one file per input, in order; unchanged files are returned as is
+     */
+    public List<MediaFile> transcodeAll(List<MediaFile> files, Profile profile) throws Exception {
+        if (files.isEmpty()) return files;
+        List<CompletableFuture<MediaFile>> futures = files.stream().map(f -> transcodeAsync(f, profile)).toList();
+        try {
+            return futures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Starts producing one derivative. Concurrent requests for the same file and profile (e.g.
+     * two accounts on the same platform) share one encode.
+     */
+    public CompletableFuture<MediaFile> transcodeAsync(MediaFile file, Profile profile) {
+        if (!isTranscodable(file)) {
+            return CompletableFuture.completedFuture(file);
+        }
+        String key = profile.cacheKey(file.sha256());
+        DerivativeCache.Entry cached = cache.get(key);
+        if (cached != null) {
+            Metrics.increment("crossposter_media_cache", "profile", profile.name(), "result", "hit");
+            return CompletableFuture.completedFuture(derivative(file, cached));
+        }
+
+        CompletableFuture<MediaFile> created = new CompletableFuture<>();
+        CompletableFuture<MediaFile> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        Metrics.increment("crossposter_media_cache", "profile", profile.name(), "result", "miss");
+        pool.execute(() -> {
+            try {
+                created.complete(encode(file, profile, key));
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                inFlight.remove(key, created);
+            }
+        });
+        return created;
+    }
+
+    private static boolean isTranscodable(MediaFile file) {
+        return !file.isVideo() && !file.mimeType().equals("image/gif");
+    }
+
+    private MediaFile encode(MediaFile file, Profile profile, String key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = decode(file, profile);
+            if (image == null) {
+                return file; // Not decodable by ImageIO (e.g. WebP); let the platform judge it
+            }
+            boolean alpha = image.getColorModel().hasAlpha();
+            boolean keepPng = alpha || file.mimeType().equals("image/png");
+
+            double scale = Math.min(1.0, Math.min(
+                    (double) profile.maxDimension() / Math.max(image.getWidth(), image.getHeight()),
+                    Math.sqrt((double) profile.maxPixels() / ((long) image.getWidth() * image.getHeight()))));
+
+            for (int attempt = 0; attempt < MAX_SHRINKS; attempt++, scale *= SHRINK_STEP) {
+                BufferedImage scaled = scale(image, scale);
+                byte[] encoded = keepPng ? writePng(scaled) : null;
+                String extension = "png";
+                if (encoded == null || encoded.length > profile.maxBytes()) {
+                    // Opaque PNGs (screenshots) fall back to JPEG before shrinking further
+                    encoded = alpha ? encoded : writeJpegUnder(scaled, profile.maxBytes());
+                    extension = alpha ? "png" : "jpg";
+                }
+                if (encoded != null && encoded.length <= profile.maxBytes()) {
+                    DerivativeCache.Entry entry = cache.put(key, encoded, sha256(encoded), extension);
+                    return derivative(file, entry);
+                }
+            }
+            throw new IOException("Could not fit " + file.fileName() + " under " + profile.maxBytes() + " bytes for " + profile.name());
+        } finally {
+            Metrics.recordNanos("crossposter_phase_seconds", System.nanoTime() - start, "phase", "transcode");
+        }
+    }
+
+    private static MediaFile derivative(MediaFile source, DerivativeCache.Entry entry) {
+        String mimeType = entry.path().toString().endsWith(".png") ? "image/png" : "image/jpeg";
+        return new MediaFile(entry.path(), mimeType, entry.size(), entry.sha256(), source.alt());
+    }
+
+    // Decodes the image, subsampling while reading when it is far larger than the profile allows,
+    // and applies its EXIF orientation. Returns null if ImageIO has no reader for the format.
+    private static BufferedImage decode(MediaFile file, Profile profile) throws IOException {
+        int orientation = file.mimeType().equals("image/jpeg") ? exifOrientation(file) : 1;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.path().toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true); // Ignoring metadata skips parsing it at all
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Keep at least twice the target resolution for the final smooth downscale
+                int subsampling = Math.max(1, longest / (profile.maxDimension() * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return orient(reader.read(0, param), orientation);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, double scale) {
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        boolean alpha = image.getColorModel().hasAlpha();
+        if (width == image.getWidth() && height == image.getHeight() && isStandard(image)) {
+            return image;
+        }
+        // Halve first when shrinking a lot; a single bicubic pass would alias
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2, alpha);
+        }
+        return draw(current, width, height, alpha);
+    }
+
+    private static boolean isStandard(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height, boolean alpha) {
+        BufferedImage target = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (!alpha) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    // Writes without metadata: ImageIO only emits what is passed in IIOImage, and we pass none
+    private static byte[] writeJpegUnder(BufferedImage image, long maxBytes) throws IOException {
+        byte[] encoded = null;
+        for (float quality : JPEG_QUALITIES) {
+            encoded = write(image, "jpeg", quality);
+            if (encoded.length <= maxBytes) break;
+        }
+        return encoded;
+    }
+
+    private static byte[] writePng(BufferedImage image) throws IOException {
+        return write(image, "png", -1);
+    }
+
+    private static byte[] write(BufferedImage image, String format, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (quality >= 0) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) return image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        boolean swap = orientation >= 5;
+        // Maps source (x, y) to the upright position, per the EXIF orientation values
+        AffineTransform t = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);   // mirrored
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);  // rotated 180
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);   // flipped
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);    // transposed
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);   // rotated 90 clockwise
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);  // transversed
+            default -> new AffineTransform(0, -1, 1, 0, 0, w);  // 8: rotated 90 counter-clockwise
+        };
+        boolean alpha = image.getColorModel().hasAlpha();
+        BufferedImage target = new BufferedImage(swap ? h : w, swap ? w : h,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.drawImage(image, t, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    // Reads the Orientation tag (0x0112) from a JPEG's EXIF segment; 1 (upright) if there is none
+    static int exifOrientation(MediaFile file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.path()))) {
+            if (in.readUnsignedShort() != 0xFFD8) return 1;
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) return 1; // Image data reached
+                int length = in.readUnsignedShort() - 2;
+                if (marker != 0xFFE1) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                byte[] segment = in.readNBytes(length);
+                if (segment.length < 14 || !new String(segment, 0, 4, StandardCharsets.ISO_8859_1).equals("Exif")) {
+                    continue;
+                }
+                ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+                tiff.order(tiff.getShort(0) == 0x4949 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                int ifd = tiff.getInt(4);
+                int count = tiff.getShort(ifd) & 0xFFFF;
+                for (int i = 0; i < count; i++) {
+                    int tag = ifd + 2 + i * 12;
+                    if ((tiff.getShort(tag) & 0xFFFF) == 0x0112) {
+                        return tiff.getShort(tag + 8) & 0xFFFF;
+                    }
+                }
+                return 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            return 1; // Truncated or odd EXIF: treat as upright
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Attachment;
+import com.crossposter.models.PostResult;
+import com.crossposter.utils.HttpException;
+import com.crossposter.utils.Metrics;
+import com.crossposter.utils.Tid;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Durable outbox for posts. A post is appended to the {@link OutboxJournal} before any network
+ * call is made, delivered to each target through the {@link CrosspostDispatcher}, and every
+ * per-target outcome is journaled. Deliveries that never reached an outcome (crash, kill, power
+ * loss) are replayed by {@link #recover()} once the target's session is available again.
+ * <p>
+ * Only errors that can't succeed on a retry (a 4xx other than 401/429, a bad file) are journaled as
+ * FAILED. After a transient one (5xx, timeout, network, open circuit) the target stays pending and
+ * is retried with exponential backoff; after a rejected token it waits for the account to log in
+ * again. The caller's future then fails with {@link Queued} rather than the error itself, since the
+ * post isn't lost and submitting it again would post it twice.
+ */
+public class Outbox {
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final int COMPACT_AFTER_APPENDS = 512;
+    private static final long RETRY_BASE_MS = 5_000;
+    private static final long RETRY_MAX_MS = 15 * 60_000;
+
+    /**
+     * A delivery that hasn't gone through yet but stays in the outbox, to be retried after a backoff
+     * or once the account logs in again. The cause is the error of the last attempt.
+     */
+    public static final class Queued extends Exception {
+        Queued(String message, HttpException cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final class Entry {
+        final String id;
+        final long submittedAt;
+        final String content;
+        final List<Attachment> media;
+        final Set<String> pending = ConcurrentHashMap.newKeySet();
+        // Per target: failed attempts so far, and when the next may start (epoch millis)
+        final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+        final Map<String, Long> notBefore = new ConcurrentHashMap<>();
+        // Epoch millis of the first delivery attempt, 0 until there is one; every attempt posts with it as createdAt
+        final AtomicLong firstAttemptAt = new AtomicLong();
+        private CompletableFuture<List<MediaFile>> prepared;
+
+        Entry(String id, long submittedAt, String content, List<Attachment> media, List<String> targets) {
+            this.id = id;
+            this.submittedAt = submittedAt;
+            this.content = content;
+            this.media = media == null ? List.of() : List.copyOf(media);
+            this.pending.addAll(targets);
+        }
+
+        // Entry ids are TIDs; entries journaled before that get one derived from their id and time
+        String deliveryId() {
+            return Tid.isValid(id) ? id : Tid.of(submittedAt * 1_000, id.hashCode());
+        }
+
+        // Attachments are hashed once per entry and shared by every delivery of it, including retries
+        synchronized CompletableFuture<List<MediaFile>> preparedMedia() {
+            if (prepared == null || prepared.isCompletedExceptionally()) {
+                prepared = MediaFile.prepareAll(media);
+            }
+            return prepared;
+        }
+    }
+
+    private final OutboxJournal journal;
+    private final CrosspostDispatcher dispatcher;
+    private final Function<String, CrosspostDispatcher.PostTarget> resolver;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger appendsSinceCompaction = new AtomicInteger();
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "outbox-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param journal the backing log; replayed immediately to rebuild undelivered entries
+     * @param dispatcher used to fan deliveries out to targets
+     * @param resolver maps a target name to a postable target, or null if it isn't connected yet
+     */
+    public Outbox(OutboxJournal journal, CrosspostDispatcher dispatcher,
+                  Function<String, CrosspostDispatcher.PostTarget> resolver) throws IOException {
+        this.journal = journal;
+        this.dispatcher = dispatcher;
+        this.resolver = resolver;
+
+        for (OutboxJournal.Record record : journal.replay()) {
+            apply(record);
+        }
+        if (!entries.isEmpty()) {
+            System.out.println("Outbox: " + entries.size() + " undelivered post(s) found in journal");
+        }
+
+        maintenance.scheduleWithFixedDelay(this::maintain, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Journals the post and starts delivering it. Returns as soon as the record is appended;
+     * delivery continues in the background.
+     * @param content The post text.
+     * @param targets Target names (e.g. "Bluesky", "Mastodon").
+     * @return A future per target that could be resolved now. It fails with {@link Queued} if the
+     * target is still pending after the first attempt.
+     */
+    public Map<String, CompletableFuture<PostResult>> submit(String content, List<String> targets) throws IOException {
+        return submit(content, List.of(), targets);
+    }
+
+    /**
+     * Like {@link #submit(String, List)}, with media attached. Only the file paths are journaled,
+     * so the files must still be there if the post is replayed after a restart.
+     * <p>
+     * A platform name is journaled as the id of the account it resolves to now, so a replay goes
+     * to that account and not to whichever one is connected first later. A target that resolves
+     * to no account yet is journaled as given.
+     * @return futures keyed by the target names as given
+     */
+    public Map<String, CompletableFuture<PostResult>> submit(String content, List<Attachment> media, List<String> targets) throws IOException {
+        Map<String, String> requested = new LinkedHashMap<>(); // journaled target -> target as given
+        for (String name : targets) {
+            CrosspostDispatcher.PostTarget target = resolver.apply(name);
+            requested.putIfAbsent(target != null ? target.name() : name, name);
+        }
+        List<String> bound = List.copyOf(requested.keySet());
+
+        // The entry id doubles as the delivery id, so replays after a crash don't post twice
+        Entry entry = new Entry(Tid.next(), System.currentTimeMillis(), content, media, bound);
+        entries.put(entry.id, entry);
+        append(OutboxJournal.Record.submitted(entry.id, entry.submittedAt, content, entry.media, bound));
+
+        Map<String, CompletableFuture<PostResult>> results = new LinkedHashMap<>();
+        deliver(entry).forEach((target, future) -> results.put(requested.get(target), future));
+        return results;
+    }
+
+    /**
+     * Re-dispatches every undelivered target whose session is available.
+     */
+    public void recover() {
+        for (Entry entry : entries.values()) {
+            deliver(entry);
+        }
+    }
+
+    public int pendingCount() {
+        return entries.size();
+    }
+
+    private Map<String, CompletableFuture<PostResult>> deliver(Entry entry) {
+        Map<String, CrosspostDispatcher.PostTarget> targets = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (String name : entry.pending) {
+            // Backing off after a transient failure; a timer delivers it when the wait is over
+            if (entry.notBefore.getOrDefault(name, 0L) > now) continue;
+            String key = entry.id + "/" + name;
+            if (!inFlight.add(key)) continue;
+
+            CrosspostDispatcher.PostTarget target = resolver.apply(name);
+            if (target == null) {
+                inFlight.remove(key);
+                continue;
+            }
+            targets.put(name, target);
+        }
+        Map<String, CompletableFuture<PostResult>> results = new LinkedHashMap<>();
+        if (targets.isEmpty()) return results;
+
+        // Results are keyed by the journaled target name, which may differ from the resolved target's name
+        Map<String, CompletableFuture<PostResult>> dispatched = dispatcher.dispatch(entry.deliveryId(),
+                firstAttempt(entry), entry.content, entry.preparedMedia(), new ArrayList<>(targets.values()));
+        targets.forEach((name, target) -> {
+            // Completed once the outcome is journaled
+            CompletableFuture<PostResult> outcome = new CompletableFuture<>();
+            dispatched.get(target.name()).whenComplete((result, error) -> {
+                Throwable reported = complete(entry, name, result, error);
+                if (reported == null) {
+                    outcome.complete(result);
+                } else {
+                    outcome.completeExceptionally(reported);
+                }
+            });
+            results.put(name, outcome);
+        });
+        return results;
+    }
+
+    /**
+     * The time of the entry's first delivery attempt, journaled when it is made so a replay doesn't
+     * post with a different createdAt than the attempt it repeats. Not the submission time: a post
+     * that waited for its account to connect isn't backdated.
+     * <p>
+     * Forced to disk by the next group commit rather than here, since submit() runs on the UI and
+     * ingest threads. If the process dies within that interval, the replay stamps its own time.
+     */
+    private Instant firstAttempt(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.firstAttemptAt.compareAndSet(0, now)) {
+            try {
+                append(OutboxJournal.Record.attempted(entry.id, now));
+            } catch (IOException e) {
+                System.out.println("Outbox: could not journal first attempt of " + entry.id + ": " + e.getMessage());
+            }
+        }
+        return Instant.ofEpochMilli(entry.firstAttemptAt.get());
+    }
+
+    // Returns what the caller is told went wrong: null if delivered, Queued if the target stays pending
+    private Throwable complete(Entry entry, String target, PostResult result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        try {
+            HttpException failure = cause == null ? null : httpFailure(cause);
+            if (failure != null && failure.kind() != HttpException.Kind.CLIENT_ERROR) {
+                // Not an outcome: the target stays pending, in memory and in the journal
+                return keepPending(entry, target, failure);
+            }
+
+            entry.pending.remove(target);
+            if (entry.pending.isEmpty()) {
+                entries.remove(entry.id);
+            }
+            OutboxJournal.Record record = cause == null
+                    ? OutboxJournal.Record.outcome(OutboxJournal.DELIVERED, entry.id, target, result == null ? null : result.ref())
+                    : OutboxJournal.Record.outcome(OutboxJournal.FAILED, entry.id, target, cause.getMessage());
+            append(record);
+        } catch (IOException e) {
+            System.out.println("Outbox: could not journal outcome for " + entry.id + "/" + target + ": " + e.getMessage());
+        } finally {
+            inFlight.remove(entry.id + "/" + target);
+        }
+        return cause;
+    }
+
+    private Queued keepPending(Entry entry, String target, HttpException failure) {
+        Metrics.increment("crossposter_outbox_retries", "reason", failure.kind().name().toLowerCase(Locale.ROOT));
+        if (failure.kind() == HttpException.Kind.TOKEN_EXPIRED || failure.kind() == HttpException.Kind.SCOPE_MISSING) {
+            // Only a new login can fix this, and logging in calls recover()
+            System.out.println("Outbox: " + entry.id + "/" + target + " is waiting for the account to log in again");
+            return new Queued("Queued until the account logs in again", failure);
+        }
+        int attempt = entry.attempts.merge(target, 1, Integer::sum);
+        long backoff = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(attempt - 1, 20));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        if (failure.retryAfter() != null) {
+            delay = Math.max(delay, failure.retryAfter().toMillis());
+        }
+        entry.notBefore.put(target, System.currentTimeMillis() + delay);
+        System.out.println("Outbox: " + entry.id + "/" + target + " failed (" + failure.getMessage() + "); retrying in "
+                + delay / 1000 + "s");
+        maintenance.schedule(() -> deliver(entry), delay, TimeUnit.MILLISECONDS);
+        return new Queued("Queued, retrying in " + delay / 1000 + "s (" + failure.getMessage() + ")", failure);
+    }
+
+    // Clients report network and HTTP errors as HttpException, possibly wrapped
+    private static HttpException httpFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpException e) return e;
+        }
+        return null;
+    }
+
+    private void apply(OutboxJournal.Record record) {
+        switch (record.type()) {
+            case OutboxJournal.SUBMITTED -> entries.putIfAbsent(record.id(),
+                    new Entry(record.id(), record.at(), record.content(), record.media(), record.targets()));
+            case OutboxJournal.ATTEMPTED -> {
+                Entry entry = entries.get(record.id());
+                if (entry != null) entry.firstAttemptAt.compareAndSet(0, record.at());
+            }
+            case OutboxJournal.DELIVERED, OutboxJournal.FAILED -> {
+                Entry entry = entries.get(record.id());
+                if (entry != null) {
+                    entry.pending.remove(record.target());
+                    if (entry.pending.isEmpty()) entries.remove(record.id());
+                }
+            }
+            default -> System.out.println("Outbox: ignoring unknown record type " + record.type());
+        }
+    }
+
+    private void append(OutboxJournal.Record record) throws IOException {
+        journal.append(record);
+        appendsSinceCompaction.incrementAndGet();
+    }
+
+    // Group commit: force recent appends to disk, and drop delivered entries from the log now and then
+    private void maintain() {
+        try {
+            journal.flush();
+            if (appendsSinceCompaction.get() >= COMPACT_AFTER_APPENDS) {
+                journal.compact(() -> entries.values().stream()
+                        .flatMap(e -> {
+                            OutboxJournal.Record submitted = OutboxJournal.Record.submitted(e.id, e.submittedAt, e.content, e.media, List.copyOf(e.pending));
+                            long attemptedAt = e.firstAttemptAt.get();
+                            return attemptedAt == 0 ? Stream.of(submitted) : Stream.of(submitted, OutboxJournal.Record.attempted(e.id, attemptedAt));
+                        })
+                        .toList());
+                appendsSinceCompaction.set(0);
+            }
+        } catch (IOException e) {
+            System.out.println("Outbox maintenance failed: " + e.getMessage());
+        }
+    }
+}
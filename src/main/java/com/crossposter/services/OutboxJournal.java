@@ -0,0 +1,199 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Attachment;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.StorageUtil;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log backing the {@link Outbox}.
+ * Each record is framed as {@code [int length][int crc32][json payload]}; on open the log is
+ * scanned and truncated at the first torn or corrupt record, so a crash mid-append only loses
+ * that one record. Appends go to the page cache and are forced to disk by {@link #flush()}.
+ */
+public class OutboxJournal implements Closeable {
+    private static final ObjectReader RECORD_READER = JsonUtil.MAPPER.readerFor(Record.class);
+    private static final ObjectWriter RECORD_WRITER = JsonUtil.MAPPER.writerFor(Record.class);
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    public static final String SUBMITTED = "submitted";
+    public static final String ATTEMPTED = "attempted";
+    public static final String DELIVERED = "delivered";
+    public static final String FAILED = "failed";
+
+    /**
+     * A journal record. SUBMITTED records carry the post, its attachments (paths, not contents) and
+     * its targets; ATTEMPTED records the time of the first delivery attempt; DELIVERED/FAILED
+     * records carry the target and a short detail (result URI or error).
+     * Null fields are left out, which keeps outcome records small.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Record(String type, String id, String content, List<Attachment> media, List<String> targets,
+                         String target, String detail, long at) {
+        // at is the submission time, kept when compaction rewrites the record
+        public static Record submitted(String id, long at, String content, List<Attachment> media, List<String> targets) {
+            return new Record(SUBMITTED, id, content, media == null || media.isEmpty() ? null : media, targets,
+                    null, null, at);
+        }
+
+        public static Record attempted(String id, long at) {
+            return new Record(ATTEMPTED, id, null, null, null, null, null, at);
+        }
+
+        public static Record outcome(String type, String id, String target, String detail) {
+            return new Record(type, id, null, null, null, target, detail, System.currentTimeMillis());
+        }
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private boolean dirty;
+
+    public OutboxJournal() throws IOException {
+        this(StorageUtil.dataFile("outbox.log"));
+    }
+
+    public OutboxJournal(Path file) throws IOException {
+        this.file = file;
+        this.channel = open(file);
+        this.channel.position(channel.size());
+    }
+
+    /**
+     * Reads every intact record in the log, truncating any torn tail left by a crash.
+     */
+    public synchronized List<Record> replay() throws IOException {
+        List<Record> records = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+        long size = channel.size();
+
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + HEADER_BYTES);
+            if (checksum(payload.array()) != crc) {
+                break;
+            }
+            records.add(RECORD_READER.readValue(payload.array()));
+            position += HEADER_BYTES + length;
+        }
+
+        if (position < size) {
+            System.out.println("Outbox journal: discarding " + (size - position) + " bytes of torn/corrupt tail");
+            channel.truncate(position);
+        }
+        channel.position(position);
+        return records;
+    }
+
+    public synchronized void append(Record record) throws IOException {
+        writeFully(channel, frame(record));
+        dirty = true;
+    }
+
+    /**
+     * Forces appended records to disk, if any were written since the last flush.
+     */
+    public synchronized void flush() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * Replaces the log with only the live records. The supplier runs while appends are blocked,
+     * so no outcome can slip in between taking the snapshot and swapping the file. If the swap
+     * fails, the old log stays in place and open for appends.
+     */
+    public synchronized void compact(Supplier<List<Record>> liveRecords) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        boolean swapped = false;
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Record record : liveRecords.get()) {
+                    writeFully(out, frame(record));
+                }
+                out.force(false);
+            }
+
+            // Windows won't replace a file that is still open
+            channel.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            swapped = true;
+            dirty = false;
+        } finally {
+            if (!swapped) {
+                Files.deleteIfExists(tmp);
+            }
+            if (!channel.isOpen()) {
+                channel = open(file);
+                channel.position(channel.size());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of outbox journal");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private static ByteBuffer frame(Record record) throws IOException {
+        byte[] payload = RECORD_WRITER.writeValueAsBytes(record);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buf.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        return buf;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
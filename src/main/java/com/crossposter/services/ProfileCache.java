@@ -0,0 +1,161 @@
+package com.crossposter.services;
+
+import com.crossposter.models.Profile;
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.Metrics;
+import com.crossposter.utils.StorageUtil;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches account profiles (handle, display name, avatar) by Bluesky DID or Mastodon acct, so
+ * labels render without a network call. Entries younger than the TTL are used as is; older ones
+ * are still returned at once but refreshed in the background (stale-while-revalidate), and only
+ * entries past the maximum staleness make the caller wait. The cache is persisted to the local
+ * data directory and survives restarts.
+ */
+public class ProfileCache {
+    private static final TypeReference<Map<String, Entry>> ENTRIES = new TypeReference<>() {};
+    private static final ObjectReader ENTRIES_READER = JsonUtil.MAPPER.readerFor(ENTRIES);
+    private static final ObjectWriter ENTRIES_WRITER = JsonUtil.MAPPER.writerFor(ENTRIES);
+
+    public record Entry(Profile profile, long fetchedAt) {}
+
+    /**
+     * Loads a profile from the network.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        Profile fetch() throws Exception;
+    }
+
+    private final Duration ttl;
+    private final Duration maxStale;
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Profile>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param fileName name of the cache file in the data directory
+     */
+    public ProfileCache(String fileName) {
+        // Overridable with -Dcrossposter.profiles.ttlSeconds / -Dcrossposter.profiles.maxStaleSeconds
+        this(Duration.ofSeconds(Long.getLong("crossposter.profiles.ttlSeconds", 3600)),
+                Duration.ofSeconds(Long.getLong("crossposter.profiles.maxStaleSeconds", 30L * 24 * 3600)),
+                StorageUtil.dataFile(fileName));
+    }
+
+    public ProfileCache(Duration ttl, Duration maxStale, Path file) {
+        this.ttl = ttl;
+        this.maxStale = maxStale;
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @return the cached profile, however old, or null; never touches the network
+     */
+    public Profile peek(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.profile() : null;
+    }
+
+    /**
+     * Returns the profile, fetching it only if it was never cached or is too old to show.
+     * A stale entry is returned immediately and refreshed in the background.
+     */
+    public Profile get(String key, Fetcher fetcher) throws Exception {
+        Entry entry = entries.get(key);
+        long age = entry == null ? Long.MAX_VALUE : System.currentTimeMillis() - entry.fetchedAt();
+        if (age < ttl.toMillis()) {
+            Metrics.increment("crossposter_profile_cache", "result", "hit");
+            return entry.profile();
+        }
+        if (age < maxStale.toMillis()) {
+            Metrics.increment("crossposter_profile_cache", "result", "stale");
+            revalidate(key, fetcher);
+            return entry.profile();
+        }
+
+        Metrics.increment("crossposter_profile_cache", "result", "miss");
+        try {
+            return revalidate(key, fetcher).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Revalidates the entry in the background if it is older than the TTL.
+     * @return the cached profile if still fresh, otherwise the refreshed one
+     */
+    public CompletableFuture<Profile> refresh(String key, Fetcher fetcher) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.fetchedAt() < ttl.toMillis()) {
+            return CompletableFuture.completedFuture(entry.profile());
+        }
+        return revalidate(key, fetcher);
+    }
+
+    /**
+     * Fetches the profile in the background and caches it. Concurrent calls for the same key
+     * share one fetch.
+     */
+    public CompletableFuture<Profile> revalidate(String key, Fetcher fetcher) {
+        CompletableFuture<Profile> created = new CompletableFuture<>();
+        CompletableFuture<Profile> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        Thread.ofVirtual().name("profile-refresh").start(() -> {
+            try {
+                Profile profile = fetcher.fetch();
+                put(key, profile);
+                created.complete(profile);
+            } catch (Throwable t) {
+                System.out.println("Profile refresh failed for " + key + ": " + t.getMessage());
+                created.completeExceptionally(t);
+            } finally {
+                inFlight.remove(key, created);
+            }
+        });
+        return created;
+    }
+
+    public void put(String key, Profile profile) {
+        Entry previous = entries.put(key, new Entry(profile, System.currentTimeMillis()));
+        // Only write when something visible changed; a confirmed entry just gets a new timestamp
+        if (previous == null || !previous.profile().equals(profile)) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            entries.putAll(ENTRIES_READER.<Map<String, Entry>>readValue(file.toFile()));
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable profile cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            StorageUtil.writeAtomically(file, ENTRIES_WRITER.writeValueAsBytes(new HashMap<>(entries)));
+        } catch (IOException e) {
+            System.out.println("Could not persist profile cache: " + e.getMessage());
+        }
+    }
+}
@@ -1,44 +1,298 @@
 package com.crossposter.services;
 
+import com.crossposter.utils.DPoPUtil;
+import com.crossposter.utils.HttpException;
+import com.crossposter.utils.RateLimitScheduler;
+
+import com.nimbusds.jose.jwk.ECKey;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ServiceRegistry {
     private static BlueskyClient blueskyClient = new BlueskyClient();
-    private static AuthSession blueskySession;
-    private static String blueskyPdsOrigin;
-
     private static MastodonClient mastodonClient = new MastodonClient();
-    private static AuthSession mastodonSession;
+
+    private static final SessionStore sessionStore = new SessionStore();
+
+    private static CrosspostDispatcher crosspostDispatcher = new CrosspostDispatcher();
+    private static TokenRefreshScheduler tokenRefreshScheduler = new TokenRefreshScheduler();
+    private static Outbox outbox;
+    private static MediaTranscoder mediaTranscoder;
+
+    private static final SessionVault sessionVault = new SessionVault();
+    private static final AtomicBoolean saveQueued = new AtomicBoolean();
+    private static CompletableFuture<Void> restored;
+
+    static {
+        // Bluesky tokens are bound to the DPoP key, so it is kept in the vault with them
+        DPoPUtil.setKeyStore(new DPoPUtil.KeyStore() {
+            @Override
+            public ECKey load() {
+                String jwk = sessionVault.load().dpopKey();
+                if (jwk == null) return null;
+                try {
+                    return ECKey.parse(jwk);
+                } catch (java.text.ParseException e) {
+                    System.out.println("Ignoring unreadable DPoP key: " + e.getMessage());
+                    return null;
+                }
+            }
+
+            @Override
+            public void save(ECKey key) {
+                persistSessions();
+            }
+        });
+        blueskyClient.setSessionListener(ServiceRegistry::sessionRefreshed);
+        mastodonClient.setSessionListener(ServiceRegistry::sessionRefreshed);
+    }
 
     // Bluesky Client
     public static BlueskyClient getBlueskyClient() {
         return blueskyClient;
     }
 
-    // Bluesky Session
-    public static AuthSession getBlueskySession() {
-        return blueskySession;
+    // Mastodon Client
+    public static MastodonClient getMastodonClient() {
+        return mastodonClient;
     }
-    public static void setBlueskySession(AuthSession session) {
-        blueskySession = session;
+
+    // Connected accounts
+    public static SessionStore getSessionStore() {
+        return sessionStore;
     }
 
-    // Bluesky PDS Origin
-    public static String getBlueskyPdsOrigin() {
-        return blueskyPdsOrigin;
+    // Add a Bluesky account (keyed by DID)
+    public static SessionStore.Account addBlueskySession(AuthSession session) {
+        SessionStore.AccountKey key = new SessionStore.AccountKey(CrosspostDispatcher.BLUESKY, session.did());
+        return addAccount(new SessionStore.Account(key, session, session.pdsEndpoint));
     }
-    public static void setBlueskyPdsOrigin(String pdsOrigin) {
-        blueskyPdsOrigin = pdsOrigin;
+
+    // Add a Mastodon account (keyed by user@instance)
+    public static SessionStore.Account addMastodonSession(AuthSession session) {
+        String acct = MastodonClient.acct(session.handle(), session.instanceUrl);
+        SessionStore.AccountKey key = new SessionStore.AccountKey(CrosspostDispatcher.MASTODON, acct);
+        return addAccount(new SessionStore.Account(key, session, null));
     }
 
-    // Mastodon Client
-    public static MastodonClient getMastodonClient() {
-        return mastodonClient;
+    private static void sessionRefreshed(AuthSession session) {
+        for (SessionStore.Account account : sessionStore.all()) {
+            if (account.session() == session) bindRateLimits(account);
+        }
+        persistSessions();
     }
 
-    // Mastodon Session
-    public static AuthSession getMastodonSession() {
-        return mastodonSession;
+    // Rate limits are per account, so the new token has to share the buckets of the old one
+    private static void bindRateLimits(SessionStore.Account account) {
+        RateLimitScheduler.bindAccount(account.session().accessToken, account.key().id());
+    }
+
+    private static SessionStore.Account addAccount(SessionStore.Account account) {
+        bindRateLimits(account);
+        SessionStore.Account replaced = sessionStore.add(account);
+        if (replaced != null) tokenRefreshScheduler.untrack(replaced.session());
+
+        TokenRefreshScheduler.Refresher refresher = account.key().platform().equals(CrosspostDispatcher.BLUESKY)
+                ? blueskyClient::refreshSession
+                : mastodonClient::refreshSession;
+        tokenRefreshScheduler.track(account.session(), refresher);
+        getOutbox().recover();
+        persistSessions();
+        return account;
     }
-    public static void setMastodonSession(AuthSession session) {
-        mastodonSession = session;
+
+    // Disconnect one account
+    public static void removeAccount(SessionStore.AccountKey key) {
+        SessionStore.Account removed = sessionStore.remove(key);
+        if (removed != null) {
+            tokenRefreshScheduler.untrack(removed.session());
+            RateLimitScheduler.unbindAccount(key.id());
+            persistSessions();
+        }
+    }
+
+    /**
+     * Restores the accounts saved in the session vault, once. The accounts are usable as soon as
+     * the vault is decrypted; their tokens are then checked in the background, refreshing the ones
+     * about to expire and dropping the ones the server no longer accepts.
+     * @return completes when the saved accounts are in the session store (before validation)
+     */
+    public static synchronized CompletableFuture<Void> restoreSessions() {
+        if (restored == null) {
+            restored = new CompletableFuture<>();
+            Thread.ofVirtual().name("session-restore").start(() -> {
+                long start = System.nanoTime();
+                List<SessionStore.Account> accounts = new ArrayList<>();
+                try {
+                    for (SessionVault.StoredAccount stored : sessionVault.load().accounts()) {
+                        SessionStore.Account account = stored.toAccount();
+                        // An account connected while the vault was being read wins
+                        if (sessionStore.get(account.key()) != null) continue;
+                        bindRateLimits(account);
+                        sessionStore.add(account);
+                        tokenRefreshScheduler.track(account.session(),
+                                account.key().platform().equals(CrosspostDispatcher.BLUESKY)
+                                        ? blueskyClient::refreshSession
+                                        : mastodonClient::refreshSession);
+                        accounts.add(account);
+                    }
+                    System.out.println("Restored " + accounts.size() + " accounts in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                    if (!accounts.isEmpty()) getOutbox().recover();
+                } catch (RuntimeException e) {
+                    System.out.println("Could not restore sessions: " + e.getMessage());
+                } finally {
+                    restored.complete(null);
+                }
+                validateSessions(accounts);
+            });
+        }
+        return restored;
+    }
+
+    // A refresh token the server no longer accepts (invalid_grant) or a rejected access token (401)
+    private static boolean isRejected(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpException e) {
+                return e.status() == 401 || String.valueOf(e.getMessage()).contains("invalid_grant");
+            }
+        }
+        return false;
+    }
+
+    // Checks the restored tokens in parallel; network errors keep the account for the next try
+    private static void validateSessions(List<SessionStore.Account> accounts) {
+        List<Thread> checks = new ArrayList<>();
+        for (SessionStore.Account account : accounts) {
+            checks.add(Thread.ofVirtual().name("session-validate").start(() -> {
+                AuthSession session = account.session();
+                try {
+                    if (account.key().platform().equals(CrosspostDispatcher.BLUESKY)) {
+                        // Sessions saved before the scope was stored learn it from the refresh response
+                        if (session.scope == null || session.expiresAt == null
+                                || Instant.now().plus(Duration.ofMinutes(5)).isAfter(session.expiresAt)) {
+                            blueskyClient.refreshSession(session);
+                        }
+                        if (!BlueskyClient.hasRequiredScope(session)) {
+                            System.out.println("Dropping " + account.key().id() + ": it was connected with scope '"
+                                    + session.scope + "'; log in again to grant the scopes posting needs");
+                            removeAccount(account.key());
+                            return;
+                        }
+                        blueskyClient.refreshProfile(session);
+                    } else {
+                        mastodonClient.getProfile(session);
+                    }
+                } catch (Exception e) {
+                    String message = String.valueOf(e.getMessage());
+                    if (isRejected(e)) {
+                        System.out.println("Dropping expired session " + account.key().id() + ": " + message);
+                        removeAccount(account.key());
+                    } else {
+                        System.out.println("Could not validate " + account.key().id() + ": " + message);
+                    }
+                }
+            }));
+        }
+        for (Thread check : checks) {
+            try {
+                check.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        persistSessions();
+    }
+
+    /**
+     * Saves the connected accounts and the DPoP key to the vault in the background. Saves requested
+     * while one is pending are coalesced into it.
+     */
+    public static void persistSessions() {
+        if (!saveQueued.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("session-save").start(() -> {
+            // Don't overwrite saved accounts before they have been restored
+            restoreSessions().join();
+            saveQueued.set(false);
+            ECKey key = DPoPUtil.getPrivateKey();
+            String dpopKey = key != null ? key.toJSONString() : sessionVault.load().dpopKey();
+            List<SessionVault.StoredAccount> accounts = sessionStore.all().stream().map(SessionVault.StoredAccount::of).toList();
+            try {
+                sessionVault.save(new SessionVault.Contents(dpopKey, accounts));
+            } catch (IOException e) {
+                System.out.println("Could not save sessions: " + e.getMessage());
+            }
+        });
+    }
+
+    // Disconnect every account of a platform
+    public static void removeAccounts(String platform) {
+        for (SessionStore.Account account : sessionStore.byPlatform(platform)) {
+            removeAccount(account.key());
+        }
+    }
+
+    // Crosspost Dispatcher
+    public static CrosspostDispatcher getCrosspostDispatcher() {
+        return crosspostDispatcher;
+    }
+
+    // Outbox (opened on first use)
+    public static synchronized Outbox getOutbox() {
+        if (outbox == null) {
+            try {
+                outbox = new Outbox(new OutboxJournal(), crosspostDispatcher, ServiceRegistry::resolveTarget);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open outbox journal", e);
+            }
+        }
+        return outbox;
+    }
+
+    // Media Transcoder (cache directory scanned on first use)
+    public static synchronized MediaTranscoder getMediaTranscoder() {
+        if (mediaTranscoder == null) {
+            try {
+                mediaTranscoder = new MediaTranscoder(new DerivativeCache());
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open media cache", e);
+            }
+        }
+        return mediaTranscoder;
+    }
+
+    /**
+     * Resolve a target name to a connected account, or null if not connected.
+     * Accepts an account id ("Bluesky:did:plc:...") or a bare platform name, which
+     * resolves to that platform's first account.
+     */
+    public static CrosspostDispatcher.PostTarget resolveTarget(String name) {
+        SessionStore.Account account;
+        if (name.indexOf(':') >= 0) {
+            account = sessionStore.get(SessionStore.AccountKey.parse(name));
+        } else {
+            List<SessionStore.Account> accounts = sessionStore.byPlatform(name);
+            account = accounts.isEmpty() ? null : accounts.get(0);
+        }
+        if (account == null || account.session().accessToken == null) return null;
+
+        String id = account.key().id();
+        switch (account.key().platform()) {
+            case CrosspostDispatcher.BLUESKY:
+                if (account.pdsOrigin() == null) return null;
+                return CrosspostDispatcher.bluesky(id, blueskyClient, account.session(), account.pdsOrigin(),
+                        getMediaTranscoder());
+            case CrosspostDispatcher.MASTODON:
+                if (account.session().instanceUrl == null) return null;
+                return CrosspostDispatcher.mastodon(id, mastodonClient, account.session(), getMediaTranscoder());
+            default:
+                return null;
+        }
     }
-}
\ No newline at end of file
+}
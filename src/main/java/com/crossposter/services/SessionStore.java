@@ -0,0 +1,104 @@
+package com.crossposter.services;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe store of connected accounts, keyed by (platform, account DID or acct).
+ * Accounts are immutable records held in a {@link ConcurrentHashMap} and the selection is an
+ * immutable set swapped atomically, so reads never lock and fanning a post out to many accounts
+ * doesn't contend on shared state. Each account owns its own {@link AuthSession}.
+ */
+public class SessionStore {
+
+    /**
+     * Identifies one account. {@link #id()} is its stable string form ("Bluesky:did:plc:...",
+     * "Mastodon:user@instance.social"), used as the crosspost target name.
+     */
+    public record AccountKey(String platform, String accountId) {
+        public String id() {
+            return platform + ":" + accountId;
+        }
+
+        public static AccountKey parse(String id) {
+            int sep = id.indexOf(':');
+            if (sep < 0) {
+                throw new IllegalArgumentException("Not an account id: " + id);
+            }
+            return new AccountKey(id.substring(0, sep), id.substring(sep + 1));
+        }
+    }
+
+    /**
+     * A connected account. pdsOrigin is only set for Bluesky accounts.
+     */
+    public record Account(AccountKey key, AuthSession session, String pdsOrigin) {
+        public String label() {
+            return session.handle() != null ? "@" + session.handle() : key.accountId();
+        }
+    }
+
+    private final Map<AccountKey, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicReference<Set<AccountKey>> selected = new AtomicReference<>(Set.of());
+
+    /**
+     * Adds the account, replacing any earlier session for the same key.
+     * @return the replaced account, or null
+     */
+    public Account add(Account account) {
+        return accounts.put(account.key(), account);
+    }
+
+    /**
+     * Removes the account and drops it from the selection.
+     * @return the removed account, or null if it wasn't connected
+     */
+    public Account remove(AccountKey key) {
+        selected.updateAndGet(current -> {
+            if (!current.contains(key)) return current;
+            return Set.copyOf(current.stream().filter(k -> !k.equals(key)).toList());
+        });
+        return accounts.remove(key);
+    }
+
+    public Account get(AccountKey key) {
+        return accounts.get(key);
+    }
+
+    public List<Account> all() {
+        return accounts.values().stream()
+                .sorted(Comparator.comparing((Account a) -> a.key().id()))
+                .toList();
+    }
+
+    public List<Account> byPlatform(String platform) {
+        return all().stream().filter(a -> a.key().platform().equals(platform)).toList();
+    }
+
+    public boolean hasAccounts(String platform) {
+        return accounts.keySet().stream().anyMatch(k -> k.platform().equals(platform));
+    }
+
+    /**
+     * Replaces the selection with the given accounts (unknown keys are ignored).
+     */
+    public void select(Collection<AccountKey> keys) {
+        selected.set(Set.copyOf(keys.stream().filter(accounts::containsKey).toList()));
+    }
+
+    /**
+     * Returns the currently selected accounts that are still connected.
+     */
+    public List<Account> selected() {
+        return selected.get().stream()
+                .map(accounts::get)
+                .filter(a -> a != null)
+                .sorted(Comparator.comparing((Account a) -> a.key().id()))
+                .toList();
+    }
+}
@@ -0,0 +1,207 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.JsonUtil;
+import com.crossposter.utils.StorageUtil;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encrypted local store for connected accounts: their tokens, issuer, PDS and DID, plus the DPoP
+ * private key the Bluesky tokens are bound to. With these, a restart restores every account
+ * without a browser round trip. DPoP nonces aren't stored: they are short-lived, and the first
+ * request after a restart learns the current one.
+ * <p>
+ * The file is AES-256-GCM encrypted. The key is derived (PBKDF2) from the CROSSPOSTER_PASSPHRASE
+ * environment variable when set; otherwise it is a random key kept in a separate file readable only
+ * by the owner. The file is decrypted once, on first use.
+ */
+public class SessionVault {
+    private static final ObjectReader CONTENTS_READER = JsonUtil.MAPPER.readerFor(Contents.class);
+    private static final ObjectWriter CONTENTS_WRITER = JsonUtil.MAPPER.writerFor(Contents.class);
+
+    private static final byte[] MAGIC = "CPV1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte KEY_FILE = 0;
+    private static final byte PASSPHRASE = 1;
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int PBKDF2_ITERATIONS = 310_000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Everything in the vault.
+     * @param dpopKey the DPoP private key as a JWK, or null
+     */
+    public record Contents(String dpopKey, List<StoredAccount> accounts) {
+        public static final Contents EMPTY = new Contents(null, List.of());
+    }
+
+    /**
+     * One account. Instants are epoch milliseconds, or null.
+     */
+    public record StoredAccount(String platform, String accountId, String pdsOrigin,
+                                String instanceUrl, String issuer, String pdsEndpoint,
+                                String accessToken, String refreshToken, String did, String handle,
+                                Long issuedAt, Long expiresAt, String scope) {
+
+        public static StoredAccount of(SessionStore.Account account) {
+            AuthSession s = account.session();
+            return new StoredAccount(account.key().platform(), account.key().accountId(), account.pdsOrigin(),
+                    s.instanceUrl, s.issuer, s.pdsEndpoint, s.accessToken, s.refreshToken, s.did, s.handle,
+                    millis(s.issuedAt), millis(s.expiresAt), s.scope);
+        }
+
+        public SessionStore.Account toAccount() {
+            AuthSession s = new AuthSession(null);
+            s.instanceUrl = instanceUrl;
+            s.issuer = issuer;
+            s.pdsEndpoint = pdsEndpoint;
+            s.accessToken = accessToken;
+            s.refreshToken = refreshToken;
+            s.did = did;
+            s.handle = handle;
+            s.issuedAt = issuedAt != null ? Instant.ofEpochMilli(issuedAt) : null;
+            s.expiresAt = expiresAt != null ? Instant.ofEpochMilli(expiresAt) : null;
+            s.scope = scope;
+            return new SessionStore.Account(new SessionStore.AccountKey(platform, accountId), s, pdsOrigin);
+        }
+
+        private static Long millis(Instant instant) {
+            return instant != null ? instant.toEpochMilli() : null;
+        }
+    }
+
+    private final Path file;
+    private final Path keyFile;
+    private final char[] passphrase;
+    private Contents contents;
+    // The salt is kept across saves so the (deliberately slow) key derivation runs once
+    private byte[] salt;
+    private SecretKey key;
+    private byte[] keySalt;
+
+    public SessionVault() {
+        this(StorageUtil.dataFile("sessions.vault"), StorageUtil.dataFile("sessions.key"), System.getenv("CROSSPOSTER_PASSPHRASE"));
+    }
+
+    public SessionVault(Path file, Path keyFile, String passphrase) {
+        this.file = file;
+        this.keyFile = keyFile;
+        this.passphrase = passphrase != null && !passphrase.isEmpty() ? passphrase.toCharArray() : null;
+    }
+
+    /**
+     * Decrypts the vault on the first call; later calls return what was loaded or last saved.
+     * An unreadable vault (e.g. the passphrase changed) is reported and treated as empty.
+     */
+    public synchronized Contents load() {
+        if (contents == null) {
+            try {
+                contents = read();
+            } catch (IOException | GeneralSecurityException e) {
+                System.out.println("Ignoring unreadable session vault " + file + ": " + e.getMessage());
+                contents = Contents.EMPTY;
+            }
+        }
+        return contents;
+    }
+
+    public synchronized void save(Contents updated) throws IOException {
+        try {
+            byte[] plaintext = CONTENTS_WRITER.writeValueAsBytes(updated);
+            if (salt == null) {
+                salt = new byte[SALT_BYTES];
+                RANDOM.nextBytes(salt);
+            }
+            byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key(salt, true), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(MAGIC);
+            byte[] ciphertext = cipher.doFinal(plaintext);
+            Arrays.fill(plaintext, (byte) 0);
+
+            ByteBuffer out = ByteBuffer.allocate(MAGIC.length + 1 + SALT_BYTES + IV_BYTES + ciphertext.length);
+            out.put(MAGIC).put(passphrase != null ? PASSPHRASE : KEY_FILE).put(salt).put(iv).put(ciphertext);
+            StorageUtil.writePrivately(file, out.array());
+            contents = updated;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not encrypt session vault", e);
+        }
+    }
+
+    private Contents read() throws IOException, GeneralSecurityException {
+        if (!Files.exists(file)) return Contents.EMPTY;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a session vault");
+        }
+        byte mode = in.get();
+        if ((mode == PASSPHRASE) != (passphrase != null)) {
+            throw new IOException(mode == PASSPHRASE ? "vault needs CROSSPOSTER_PASSPHRASE" : "vault was not written with a passphrase");
+        }
+        byte[] storedSalt = new byte[SALT_BYTES];
+        byte[] iv = new byte[IV_BYTES];
+        in.get(storedSalt).get(iv);
+        byte[] ciphertext = new byte[in.remaining()];
+        in.get(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key(storedSalt, false), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        byte[] plaintext = cipher.doFinal(ciphertext);
+        salt = storedSalt;
+        try {
+            return CONTENTS_READER.readValue(plaintext);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    private SecretKey key(byte[] salt, boolean create) throws IOException, GeneralSecurityException {
+        if (key != null && Arrays.equals(salt, keySalt)) {
+            return key;
+        }
+        if (passphrase != null) {
+            PBEKeySpec spec = new PBEKeySpec(passphrase, salt, PBKDF2_ITERATIONS, 256);
+            try {
+                byte[] derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                key = new SecretKeySpec(derived, "AES");
+            } finally {
+                spec.clearPassword();
+            }
+        } else {
+            if (!Files.exists(keyFile)) {
+                if (!create) throw new IOException("key file " + keyFile + " is missing");
+                byte[] random = new byte[32];
+                RANDOM.nextBytes(random);
+                StorageUtil.writePrivately(keyFile, random);
+            }
+            key = new SecretKeySpec(Files.readAllBytes(keyFile), "AES");
+        }
+        keySalt = salt.clone();
+        return key;
+    }
+}
@@ -0,0 +1,137 @@
+package com.crossposter.services;
+
+import com.crossposter.utils.GraphemeCounter;
+
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text that is too long for one post into a thread. Each part is cut at the last sentence
+ * end that fits, falling back to the last space, and only cuts a word (never a grapheme or a URL
+ * shorter than the limit) when a single word is longer than a whole post.
+ */
+public class ThreadSplitter {
+
+    /**
+     * How a platform measures a post.
+     * @param maxGraphemes length limit in grapheme clusters
+     * @param maxBytes UTF-8 size limit, or 0 for none
+     * @param urlLength length every URL counts as (Mastodon), or 0 to count URLs as written
+     */
+    public record Limit(int maxGraphemes, int maxBytes, int urlLength) {
+
+        public int length(String text) {
+            return measure(text, GraphemeCounter.count(text)).graphemes;
+        }
+
+        /**
+         * Like {@link #length(String)}, for a text whose grapheme count is already known (see
+         * {@link GraphemeCounter#update}).
+         */
+        public int length(String text, int graphemes) {
+            return measure(text, graphemes).graphemes;
+        }
+
+        public boolean fits(String text) {
+            return fits(text, GraphemeCounter.count(text));
+        }
+
+        public boolean fits(String text, int graphemes) {
+            Measure m = measure(text, graphemes);
+            return m.graphemes <= maxGraphemes && (maxBytes == 0 || m.bytes <= maxBytes);
+        }
+
+        private Measure measure(String text, int graphemes) {
+            if (urlLength > 0) {
+                Matcher url = URL.matcher(text);
+                while (url.find()) {
+                    graphemes += urlLength - GraphemeCounter.count(url.group());
+                }
+            }
+            return new Measure(graphemes, maxBytes == 0 ? 0 : text.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    private record Measure(int graphemes, int bytes) {}
+
+    // Bluesky: 300 graphemes and 3000 bytes (app.bsky.feed.post lexicon)
+    public static final Limit BLUESKY = new Limit(300, 3000, 0);
+    // Mastodon's defaults; instances can raise the length (see MastodonClient#getLimit)
+    public static final Limit MASTODON_DEFAULT = new Limit(500, 0, 23);
+
+    private static final Pattern URL = Pattern.compile("https?://\\S+");
+
+    // A sentence end this far into the allowance is preferred to filling the post word by word
+    private static final double MIN_SENTENCE_FILL = 0.5;
+
+    /**
+     * @return the parts of the thread; a single element when the text already fits
+     */
+    public static List<String> split(String text, Limit limit) {
+        String remaining = text.strip();
+        if (limit.fits(remaining)) {
+            return List.of(remaining);
+        }
+
+        List<String> parts = new ArrayList<>();
+        while (!remaining.isEmpty() && !limit.fits(remaining)) {
+            int end = cut(remaining, limit);
+            parts.add(remaining.substring(0, end).strip());
+            remaining = remaining.substring(end).strip();
+        }
+        if (!remaining.isEmpty()) {
+            parts.add(remaining);
+        }
+        return parts;
+    }
+
+    // Returns where to end the next part of a text that doesn't fit
+    private static int cut(String text, Limit limit) {
+        int[] graphemes = GraphemeCounter.boundaries(text);
+        int fit = longestFit(text, graphemes, limit);
+
+        int sentence = lastBreakWithin(BreakIterator.getSentenceInstance(), text, fit);
+        if (sentence > 0 && limit.length(text.substring(0, sentence)) >= limit.maxGraphemes() * MIN_SENTENCE_FILL) {
+            return sentence;
+        }
+        int space = lastSpaceWithin(text, fit);
+        if (space > 0) {
+            return space;
+        }
+        return fit; // One word (or URL) longer than a post
+    }
+
+    // The longest prefix ending on a grapheme boundary that fits, by binary search over boundaries
+    private static int longestFit(String text, int[] graphemes, Limit limit) {
+        int lo = 1;
+        int hi = graphemes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (limit.fits(text.substring(0, graphemes[mid]))) lo = mid;
+            else hi = mid - 1;
+        }
+        return graphemes[lo];
+    }
+
+    // Sentence breaks fall after the whitespace following a sentence, which the part won't keep
+    private static int lastBreakWithin(BreakIterator breaks, String text, int end) {
+        while (end < text.length() && Character.isWhitespace(text.charAt(end))) end++;
+        breaks.setText(text);
+        int b = end == text.length() ? end : breaks.preceding(end + 1);
+        return b == BreakIterator.DONE ? 0 : b;
+    }
+
+    private static int lastSpaceWithin(String text, int end) {
+        if (end < text.length() && Character.isWhitespace(text.charAt(end))) {
+            return end;
+        }
+        for (int i = end - 1; i > 0; i--) {
+            if (Character.isWhitespace(text.charAt(i))) return i;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.crossposter.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes access tokens in the background a configurable margin before they expire,
+ * so posting almost never has to fall back to the reactive refresh-and-retry path.
+ * Sessions without an expiry (e.g. non-expiring Mastodon tokens) are ignored.
+ */
+public class TokenRefreshScheduler {
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+
+    @FunctionalInterface
+    public interface Refresher {
+        void refresh(AuthSession session) throws Exception;
+    }
+
+    private final Duration margin;
+    private final Map<AuthSession, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public TokenRefreshScheduler() {
+        // Margin can be overridden with -Dcrossposter.auth.refreshMarginSeconds
+        this(Duration.ofSeconds(Long.getLong("crossposter.auth.refreshMarginSeconds", 300)));
+    }
+
+    public TokenRefreshScheduler(Duration margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Starts refreshing the session ahead of its expiry, replacing any earlier schedule for it.
+     */
+    public void track(AuthSession session, Refresher refresher) {
+        if (session.refreshToken == null || session.expiresAt == null) {
+            untrack(session);
+            return;
+        }
+        schedule(session, refresher, delayUntilRefresh(session));
+    }
+
+    /**
+     * Stops refreshing the session (e.g. after disconnect).
+     */
+    public void untrack(AuthSession session) {
+        ScheduledFuture<?> future = scheduled.remove(session);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void schedule(AuthSession session, Refresher refresher, Duration delay) {
+        ScheduledFuture<?> future = executor.schedule(() -> run(session, refresher), delay.toMillis(), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = scheduled.put(session, future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private void run(AuthSession session, Refresher refresher) {
+        try {
+            refresher.refresh(session);
+            // The session may have been disconnected while the refresh was in flight
+            if (scheduled.containsKey(session)) {
+                track(session, refresher);
+            }
+        } catch (Exception e) {
+            System.out.println("Background token refresh failed: " + e.getMessage());
+            // Keep trying until the token actually expires; after that the reactive path takes over
+            Instant expiresAt = session.expiresAt;
+            if (scheduled.containsKey(session) && expiresAt != null && Instant.now().plus(RETRY_DELAY).isBefore(expiresAt)) {
+                schedule(session, refresher, RETRY_DELAY);
+            } else {
+                scheduled.remove(session);
+            }
+        }
+    }
+
+    private Duration delayUntilRefresh(AuthSession session) {
+        Instant expiresAt = session.expiresAt;
+        Duration lead = margin;
+        // Short-lived tokens: never wait past the middle of the token's lifetime
+        if (session.issuedAt != null) {
+            Duration halfLife = Duration.between(session.issuedAt, expiresAt).dividedBy(2);
+            if (halfLife.compareTo(lead) < 0) {
+                lead = halfLife;
+            }
+        }
+        Duration delay = Duration.between(Instant.now(), expiresAt.minus(lead));
+        return delay.isNegative() ? Duration.ZERO : delay;
+    }
+}
@@ -0,0 +1,33 @@
+package com.crossposter.utils;
+
+import java.net.URI;
+
+/**
+ * Opens authorization URLs in the system browser. AWT is only touched here, and not at all in
+ * headless mode (-Dcrossposter.headless=true), where the URL is printed for the user to open.
+ */
+public class BrowserUtil {
+
+    public static boolean isHeadless() {
+        return Boolean.getBoolean("crossposter.headless");
+    }
+
+    public static void open(String url) {
+        if (isHeadless()) {
+            System.out.println("Open this URL in your browser: " + url);
+            return;
+        }
+
+        // If Desktop fails, print URL so the user can open it manually.
+        try {
+            if (java.awt.Desktop.isDesktopSupported() && java.awt.Desktop.getDesktop().isSupported(java.awt.Desktop.Action.BROWSE)) {
+                java.awt.Desktop.getDesktop().browse(URI.create(url));
+            } else {
+                System.out.println("Open this URL in your browser: " + url);
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to open system browser: " + e.getMessage());
+            System.out.println("Open this URL in your browser: " + url);
+        }
+    }
+}
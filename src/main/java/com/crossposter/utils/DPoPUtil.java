@@ -6,10 +6,10 @@ import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.jwk.Curve;
 import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -19,32 +19,97 @@ import java.security.interfaces.ECPublicKey;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class DPoPUtil {
+    private static final int MAX_CACHED_ATH = 64;
+
     private static ECKey privateECKey;
     private static ECKey publicJWK;
+
+    // Built once per key pair: header (with the serialized public JWK) and signer are reused for every proof
+    private static volatile Signing signing;
+
+    // Latest DPoP-Nonce per origin authority (htu host[:port]), updated from every response
+    private static final Map<String, String> NONCES = new ConcurrentHashMap<>();
+
+    // ath claim memoized per access token, so the token is hashed once rather than per request
+    private static final Map<String, String> ATH_CACHE = new ConcurrentHashMap<>();
+
+    private record Signing(JWSHeader header, String encodedHeader, ECDSASigner signer) {}
+
+    /**
+     * Keeps the key pair between runs, so tokens bound to it stay usable after a restart.
+     */
+    public interface KeyStore {
+        /** @return the saved key pair, or null if there is none */
+        ECKey load();
+
+        void save(ECKey key);
+    }
+
+    private static KeyStore keyStore;
+
     private DPoPUtil() {}
 
+    /**
+     * Sets where the key pair is loaded from and saved to. Must be called before the first proof;
+     * without a store, each run generates a new key pair.
+     */
+    public static synchronized void setKeyStore(KeyStore store) {
+        keyStore = store;
+    }
+
+    /**
+     * @return the key pair in use (with its private part), or null if none has been loaded yet
+     */
+    public static synchronized ECKey getPrivateKey() {
+        return privateECKey;
+    }
+
     public static synchronized void init() {
-        if (privateECKey != null) return;
+        if (signing != null) return;
         try {
-            KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
-            kpg.initialize(256); // P-256
-            KeyPair kp = kpg.generateKeyPair();
-
-            ECPublicKey pub = (ECPublicKey) kp.getPublic();
-            ECPrivateKey priv = (ECPrivateKey) kp.getPrivate();
+            ECKey stored = keyStore != null ? keyStore.load() : null;
+            if (stored != null) {
+                privateECKey = stored;
+            } else {
+                KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+                kpg.initialize(256); // P-256
+                KeyPair kp = kpg.generateKeyPair();
 
-            privateECKey = new ECKey.Builder(Curve.P_256, pub).privateKey(priv).build();
+                ECPublicKey pub = (ECPublicKey) kp.getPublic();
+                ECPrivateKey priv = (ECPrivateKey) kp.getPrivate();
+                privateECKey = new ECKey.Builder(Curve.P_256, pub).privateKey(priv).build();
+                if (keyStore != null) keyStore.save(privateECKey);
+            }
             publicJWK = privateECKey.toPublicJWK();
 
-            System.out.println("DPoP keypair generated");
+            JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256)
+                    .type(new JOSEObjectType("dpop+jwt"))
+                    .jwk(publicJWK)
+                    .build();
+            signing = new Signing(header, header.toBase64URL().toString(), new ECDSASigner(privateECKey));
+
+            System.out.println(stored != null ? "DPoP keypair restored" : "DPoP keypair generated");
         } catch (Exception e) {
             throw new RuntimeException("DPoP init failed", e);
         }
     }
 
+    /**
+     * Build a DPoP proof for the given HTTP method and URL, using the latest nonce
+     * seen from the URL's origin.
+     * @param method HTTP verb (e.g. POST, GET)
+     * @param url exact URL (e.g. https://bsky.social/oauth/par)
+     * @param accessToken optional access token to bind the proof to (ath claim)
+     */
+    public static String buildDPoP(String method, String url, String accessToken) {
+        return buildDPoP(method, url, getNonce(url), accessToken);
+    }
+
     /**
      * Build a DPoP proof for the given HTTP method and URL.
      * @param method HTTP verb (e.g. POST, GET)
@@ -53,19 +118,16 @@ public final class DPoPUtil {
      * @param accessToken optional access token to bind the proof to (ath claim)
      */
     public static String buildDPoP(String method, String url, String nonce, String accessToken) { // change for bluesky poster
+        long start = System.nanoTime();
         try {
-            if (privateECKey == null) init();
-
-            JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256)
-                    .type(new JOSEObjectType("dpop+jwt"))
-                    .jwk(publicJWK)
-                    .build();
+            if (signing == null) init();
+            Signing s = signing;
 
             JWTClaimsSet.Builder claims = new JWTClaimsSet.Builder()
                     .jwtID(UUID.randomUUID().toString())
                     .issueTime(Date.from(Instant.now()))
                     .claim("htm", method.toUpperCase())
-                    .claim("htu", new URI(url).toString());
+                    .claim("htu", htu(url));
 
             if (nonce != null && !nonce.isEmpty()) {
                 claims.claim("nonce", nonce);
@@ -73,19 +135,18 @@ public final class DPoPUtil {
 
             // change for bluesky poster: Add the 'ath' claim if an access token is provided
             if (accessToken != null && !accessToken.isEmpty()) {
-                MessageDigest md = MessageDigest.getInstance("SHA-256");
-                byte[] digest = md.digest(accessToken.getBytes(StandardCharsets.US_ASCII));
-                String ath = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
-                claims.claim("ath", ath);
+                claims.claim("ath", ath(accessToken));
             }
 
-            SignedJWT jwt = new SignedJWT(header, claims.build());
-            ECDSASigner signer = new ECDSASigner(privateECKey);
-            jwt.sign(signer);
+            // Sign "<header>.<payload>" directly so the cached header isn't re-encoded per proof
+            String signingInput = s.encodedHeader() + "." + Base64URL.encode(claims.build().toString());
+            Base64URL signature = s.signer().sign(s.header(), signingInput.getBytes(StandardCharsets.US_ASCII));
 
-            return jwt.serialize();
+            return signingInput + "." + signature;
         } catch (Exception e) {
             throw new RuntimeException("Error creating DPoP proof", e);
+        } finally {
+            Metrics.recordNanos("crossposter_phase_seconds", System.nanoTime() - start, "phase", "dpop_sign");
         }
     }
 
@@ -93,4 +154,64 @@ public final class DPoPUtil {
         if (publicJWK == null) init();
         return publicJWK;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the latest nonce seen from the URL's origin, or null if none yet.
+     */
+    public static String getNonce(String url) {
+        String authority = authority(url);
+        return authority == null ? null : NONCES.get(authority);
+    }
+
+    /**
+     * Records the DPoP-Nonce header of a response (if any) against the responding origin.
+     * @return the nonce from the response, or null if it carried none
+     */
+    public static String updateNonce(HttpResponse<?> response) {
+        String nonce = response.headers().firstValue("DPoP-Nonce").orElse(null);
+        if (nonce != null && !nonce.isEmpty()) {
+            String authority = response.request().uri().getRawAuthority();
+            if (authority != null) {
+                NONCES.put(authority, nonce);
+            }
+        }
+        return nonce;
+    }
+
+    private static String ath(String accessToken) throws Exception {
+        String cached = ATH_CACHE.get(accessToken);
+        if (cached != null) return cached;
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] digest = md.digest(accessToken.getBytes(StandardCharsets.US_ASCII));
+        String ath = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+
+        // Tokens rotate; drop old entries rather than letting the cache grow without bound
+        if (ATH_CACHE.size() >= MAX_CACHED_ATH) {
+            ATH_CACHE.clear();
+        }
+        ATH_CACHE.put(accessToken, ath);
+        return ath;
+    }
+
+    // htu is the request URL without query or fragment (RFC 9449, section 4.2)
+    private static String htu(String url) {
+        int end = url.length();
+        int q = url.indexOf('?');
+        if (q >= 0) end = q;
+        int f = url.indexOf('#');
+        if (f >= 0 && f < end) end = f;
+        return end == url.length() ? url : url.substring(0, end);
+    }
+
+    private static String authority(String url) {
+        int start = url.indexOf("://");
+        if (start < 0) return null;
+        start += 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return url.substring(start, end);
+    }
+}
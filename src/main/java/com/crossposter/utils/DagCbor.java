@@ -0,0 +1,178 @@
+package com.crossposter.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the CID a PDS will give a record, so a record can be referenced (e.g. by a reply's
+ * strongRef) before it has been written. The record is encoded as canonical DAG-CBOR, the way the
+ * PDS stores it: map keys sorted by length then bytes, minimal-length integers, {@code $link}
+ * objects as CID links and {@code $bytes} objects as byte strings. AT Protocol records have no
+ * floats.
+ */
+public final class DagCbor {
+    private static final String BASE32 = "abcdefghijklmnopqrstuvwxyz234567";
+    // CIDv1, dag-cbor codec, sha2-256 multihash of 32 bytes
+    private static final byte[] CID_PREFIX = {0x01, 0x71, 0x12, 0x20};
+
+    private DagCbor() {}
+
+    /**
+     * @param record the record as it is sent to the PDS
+     * @return the record's CID in its usual string form ("bafyrei...")
+     */
+    public static String cid(Object record) {
+        JsonNode tree = JsonUtil.MAPPER.valueToTree(record);
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(encode(tree));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] cid = Arrays.copyOf(CID_PREFIX, CID_PREFIX.length + digest.length);
+        System.arraycopy(digest, 0, cid, CID_PREFIX.length, digest.length);
+        return "b" + base32(cid);
+    }
+
+    public static byte[] encode(JsonNode node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        write(out, node);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, JsonNode node) {
+        switch (node.getNodeType()) {
+            case OBJECT -> writeObject(out, node);
+            case ARRAY -> {
+                header(out, 4, node.size());
+                for (JsonNode element : node) write(out, element);
+            }
+            case STRING -> {
+                byte[] utf8 = node.textValue().getBytes(StandardCharsets.UTF_8);
+                header(out, 3, utf8.length);
+                out.writeBytes(utf8);
+            }
+            case NUMBER -> {
+                if (!node.canConvertToExactIntegral() || !node.canConvertToLong()) {
+                    throw new IllegalArgumentException("DAG-CBOR records can't hold " + node);
+                }
+                long value = node.longValue();
+                if (value >= 0) header(out, 0, value);
+                else header(out, 1, -1 - value);
+            }
+            case BOOLEAN -> out.write(node.booleanValue() ? 0xf5 : 0xf4);
+            case NULL -> out.write(0xf6);
+            default -> throw new IllegalArgumentException("Unsupported value in record: " + node.getNodeType());
+        }
+    }
+
+    private static void writeObject(ByteArrayOutputStream out, JsonNode node) {
+        if (node.size() == 1 && node.get("$link") != null && node.get("$link").isTextual()) {
+            // Tag 42: a CID, as a byte string with a leading 0x00 (the identity multibase)
+            byte[] cid = decodeCid(node.get("$link").textValue());
+            out.write(0xd8);
+            out.write(42);
+            header(out, 2, cid.length + 1);
+            out.write(0);
+            out.writeBytes(cid);
+            return;
+        }
+        if (node.size() == 1 && node.get("$bytes") != null && node.get("$bytes").isTextual()) {
+            byte[] bytes = Base64.getDecoder().decode(node.get("$bytes").textValue());
+            header(out, 2, bytes.length);
+            out.writeBytes(bytes);
+            return;
+        }
+
+        List<Map.Entry<byte[], JsonNode>> fields = new ArrayList<>(node.size());
+        for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            fields.add(Map.entry(field.getKey().getBytes(StandardCharsets.UTF_8), field.getValue()));
+        }
+        fields.sort((a, b) -> a.getKey().length != b.getKey().length
+                ? Integer.compare(a.getKey().length, b.getKey().length)
+                : Arrays.compareUnsigned(a.getKey(), b.getKey()));
+
+        header(out, 5, fields.size());
+        for (Map.Entry<byte[], JsonNode> field : fields) {
+            header(out, 3, field.getKey().length);
+            out.writeBytes(field.getKey());
+            write(out, field.getValue());
+        }
+    }
+
+    // Major type and argument, in the shortest form
+    private static void header(ByteArrayOutputStream out, int major, long value) {
+        int type = major << 5;
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value < 0x100) {
+            out.write(type | 24);
+            out.write((int) value);
+        } else if (value < 0x10000) {
+            out.write(type | 25);
+            writeBigEndian(out, value, 2);
+        } else if (value < 0x100000000L) {
+            out.write(type | 26);
+            writeBigEndian(out, value, 4);
+        } else {
+            out.write(type | 27);
+            writeBigEndian(out, value, 8);
+        }
+    }
+
+    private static void writeBigEndian(ByteArrayOutputStream out, long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    // Only base32 ('b') CIDs, which is the form every AT Protocol API uses
+    private static byte[] decodeCid(String cid) {
+        if (!cid.startsWith("b")) {
+            throw new IllegalArgumentException("Unsupported CID encoding: " + cid);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 1; i < cid.length(); i++) {
+            int value = BASE32.indexOf(cid.charAt(i));
+            if (value < 0) throw new IllegalArgumentException("Invalid CID: " + cid);
+            buffer = (buffer << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                out.write((buffer >>> bits) & 0xff);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String base32(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bits = 0;
+        for (byte b : data) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                sb.append(BASE32.charAt((buffer >>> bits) & 31));
+            }
+        }
+        if (bits > 0) {
+            sb.append(BASE32.charAt((buffer << (5 - bits)) & 31));
+        }
+        return sb.toString();
+    }
+}
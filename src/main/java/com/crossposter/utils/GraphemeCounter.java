@@ -0,0 +1,108 @@
+package com.crossposter.utils;
+
+import java.text.BreakIterator;
+import java.util.Arrays;
+
+/**
+ * Counts user-perceived characters (extended grapheme clusters), the unit both Bluesky and
+ * Mastodon measure post length in: an emoji with skin tone, a flag or a letter with combining
+ * accents counts as one, where {@code String.length()} counts 2 to 10+.
+ * <p>
+ * An instance tracks the count of a text being edited. Each {@link #update} re-segments only the
+ * edited region, widened to the nearest boundaries that are certain in both versions of the text:
+ * those before an ASCII character. A keystroke costs the same however long the post already is
+ * as long as the text around it has a space or other ASCII character now and then; an edit inside
+ * a long run without one (unspaced CJK, a wall of emoji) re-segments the whole run.
+ */
+public class GraphemeCounter {
+
+    private String text = "";
+    private int count;
+
+    public static int count(CharSequence text) {
+        return count(text.toString(), 0, text.length());
+    }
+
+    /**
+     * @return the grapheme boundaries of the text, including 0 and its length
+     */
+    public static int[] boundaries(String text) {
+        BreakIterator graphemes = BreakIterator.getCharacterInstance();
+        graphemes.setText(text);
+        int[] offsets = new int[text.length() + 1];
+        int n = 0;
+        for (int b = graphemes.first(); b != BreakIterator.DONE; b = graphemes.next()) {
+            offsets[n++] = b;
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Replaces the tracked text and returns its grapheme count.
+     */
+    public int update(String newText) {
+        String oldText = text;
+        int prefix = 0;
+        int max = Math.min(oldText.length(), newText.length());
+        while (prefix < max && oldText.charAt(prefix) == newText.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && oldText.charAt(oldText.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        // Widen the edit to boundaries inside the unchanged text (both characters around the
+        // boundary unchanged), where both versions are certain to agree
+        int start = prefix == 0 ? 0 : safeBoundaryBefore(oldText, prefix - 1);
+        // (+2: the check may read the character before a surrogate pair too, which must be unchanged)
+        int oldEnd = suffix == 0 ? oldText.length()
+                : safeBoundaryAfter(oldText, Math.min(oldText.length(), oldText.length() - suffix + 2));
+        int newEnd = newText.length() - (oldText.length() - oldEnd);
+
+        count += count(newText, start, newEnd) - count(oldText, start, oldEnd);
+        text = newText;
+        return count;
+    }
+
+    private static int count(String text, int start, int end) {
+        if (start >= end) return 0;
+        BreakIterator graphemes = BreakIterator.getCharacterInstance();
+        graphemes.setText(text.substring(start, end));
+        int n = 0;
+        while (graphemes.next() != BreakIterator.DONE) n++;
+        return n;
+    }
+
+    // There is always a grapheme boundary before an ASCII character, except in CR LF or after a
+    // prepended concatenation mark: no ASCII character extends or joins a cluster, and whether a
+    // boundary comes before one depends on nothing but the character before it
+    private static boolean isSafeBoundary(String text, int i) {
+        if (i <= 0 || i >= text.length()) return true;
+        char after = text.charAt(i);
+        if (after >= 0x80) return false;
+        int before = Character.codePointBefore(text, i);
+        return !(before == '\r' && after == '\n') && !isPrepend(before);
+    }
+
+    // Grapheme_Cluster_Break=Prepend (Unicode 15.1)
+    private static boolean isPrepend(int c) {
+        return (c >= 0x0600 && c <= 0x0605) || c == 0x06DD || c == 0x070F || c == 0x0890 || c == 0x0891
+                || c == 0x08E2 || c == 0x0D4E || c == 0x110BD || c == 0x110CD || c == 0x111C2 || c == 0x111C3
+                || c == 0x1193F || c == 0x11941 || c == 0x11A3A || (c >= 0x11A84 && c <= 0x11A89)
+                || c == 0x11D46 || c == 0x11F02;
+    }
+
+    private static int safeBoundaryBefore(String text, int i) {
+        while (!isSafeBoundary(text, i)) i--;
+        return i;
+    }
+
+    private static int safeBoundaryAfter(String text, int i) {
+        while (!isSafeBoundary(text, i)) i++;
+        return i;
+    }
+}
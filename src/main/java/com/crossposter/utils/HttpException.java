@@ -0,0 +1,82 @@
+package com.crossposter.utils;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * A failed HTTP exchange, classified (see {@link RetryPolicy#classify}) so callers react to the
+ * kind of failure instead of to the wording of an error message.
+ */
+public class HttpException extends IOException {
+
+    public enum Kind {
+        /** DPoP: the server wants a proof carrying its nonce; send again with a new proof */
+        NONCE_REQUIRED,
+        /** 401: the access token expired or was rejected; refresh it and send again */
+        TOKEN_EXPIRED,
+        /** 403: the token wasn't granted a scope the request needs; only a new login can grant it */
+        SCOPE_MISSING,
+        /** 429: wait (see {@link #retryAfter()}) and send again */
+        RATE_LIMITED,
+        /** 5xx */
+        SERVER_ERROR,
+        /** No response in time */
+        TIMEOUT,
+        /** Connection refused or reset, DNS failure, ... */
+        NETWORK,
+        /** Not sent: the host's circuit breaker is open */
+        CIRCUIT_OPEN,
+        /** Any other 4xx; sending the same request again won't help */
+        CLIENT_ERROR
+    }
+
+    private final Kind kind;
+    private final int status;
+    private final Duration retryAfter;
+
+    public HttpException(Kind kind, int status, Duration retryAfter, String message, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * An exception for an error response. The message is followed by the status and the body, the
+     * way errors were reported before they were typed.
+     */
+    public static HttpException of(HttpResponse<String> response, String message) {
+        return new HttpException(RetryPolicy.classify(response.statusCode(), response.headers(), response.body()),
+                response.statusCode(), RetryPolicy.retryAfter(response.headers()),
+                message + ". Status: " + response.statusCode() + ", Response: " + response.body(), null);
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return the HTTP status, or 0 if there was no response
+     */
+    public int status() {
+        return status;
+    }
+
+    /**
+     * @return how long the server asked us to wait, or null if it didn't say
+     */
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return whether the same request may succeed later, without changing it
+     */
+    public boolean isTransient() {
+        return switch (kind) {
+            case RATE_LIMITED, SERVER_ERROR, TIMEOUT, NETWORK, CIRCUIT_OPEN -> true;
+            default -> false;
+        };
+    }
+}
@@ -1,14 +1,76 @@
 package com.crossposter.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class HttpUtil {
-    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+    // Timeouts can be overridden with -Dcrossposter.http.connectTimeoutMs / -Dcrossposter.http.requestTimeoutMs
+    private static final Duration CONNECT_TIMEOUT =
+            Duration.ofMillis(Long.getLong("crossposter.http.connectTimeoutMs", 5_000));
+    private static final Duration REQUEST_TIMEOUT =
+            Duration.ofMillis(Long.getLong("crossposter.http.requestTimeoutMs", 30_000));
+    // Media uploads get longer, overridable with -Dcrossposter.http.uploadTimeoutMs
+    private static final Duration UPLOAD_TIMEOUT =
+            Duration.ofMillis(Long.getLong("crossposter.http.uploadTimeoutMs", 300_000));
+
+    // Shared client: prefers HTTP/2 (falls back to HTTP/1.1 via ALPN) and completes
+    // async exchanges on virtual threads so in-flight requests don't pin platform threads.
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    // Encodings we can decode as a stream (the JDK has no Brotli decoder)
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /**
+     * Parses a decompressed response body.
+     */
+    @FunctionalInterface
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    /**
+     * A response body that is parsed when {@link #get()} is called. For 2xx responses the body is
+     * read straight from the (decompressed) network stream, so {@code get()} must be called to
+     * release the connection. For other statuses {@code get()} throws an {@link HttpException}
+     * carrying the status and the error text.
+     */
+    @FunctionalInterface
+    public interface JsonBody<T> {
+        T get() throws IOException;
+    }
 
     // Encode a form body.
     public static String formEncode(Map<String, String> params) {
@@ -20,47 +82,91 @@ public class HttpUtil {
     }
 
     // Send a POST with form or JSON body, returns response with headers
-    public static HttpResponse<String> postFormWithResponse(String url, Map<String, String> headers, String body) {
+    public static HttpResponse<String> postFormWithResponse(String url, Map<String, String> headers, String body) throws HttpException {
         System.out.println("url: " + url + "\nheaders: " + headers + "\nbody: " + body);
+        return send(buildPost(url, headers, body, REQUEST_TIMEOUT), headers, DECODED_STRING);
+    }
+
+    // Send a POST whose body is streamed from a file (e.g. a Bluesky uploadBlob call)
+    public static HttpResponse<String> postFileWithResponse(String url, Map<String, String> headers, Path file) throws HttpException {
+        HttpRequest request;
         try {
-            HttpRequest.Builder builder = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .POST(HttpRequest.BodyPublishers.ofString(body));
+            request = buildPost(url, headers, HttpRequest.BodyPublishers.ofFile(file), UPLOAD_TIMEOUT);
+        } catch (IOException e) {
+            throw new HttpException(HttpException.Kind.CLIENT_ERROR, 0, null, "HTTP POST failed: " + url, e);
+        }
+        return send(request, headers, DECODED_STRING);
+    }
 
-            for (Map.Entry<String, String> h : headers.entrySet()) {
-                builder.header(h.getKey(), h.getValue());
-            }
+    /**
+     * One part of a multipart/form-data body: a text field, or a file streamed from disk.
+     */
+    public record Part(String name, String value, Path file, String contentType) {
+        public static Part field(String name, String value) {
+            return new Part(name, value, null, null);
+        }
 
-            return CLIENT.send(builder.build(), HttpResponse.BodyHandlers.ofString());
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("HTTP POST failed: " + url, e);
+        public static Part file(String name, Path file, String contentType) {
+            return new Part(name, null, file, contentType);
         }
     }
 
-    // Send a GET request with headers, returns response with headers
-    public static HttpResponse<String> getWithResponse(String url, Map<String, String> headers) {
+    // Send a multipart/form-data POST; file parts are streamed from disk and the length is known up front
+    public static HttpResponse<String> postMultipartWithResponse(String url, Map<String, String> headers, List<Part> parts) throws HttpException {
+        String boundary = "----crossposter" + UUID.randomUUID().toString().replace("-", "");
+        Map<String, String> withType = new HashMap<>(headers);
+        withType.put("Content-Type", "multipart/form-data; boundary=" + boundary);
+        HttpRequest request;
         try {
-            HttpRequest.Builder builder = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET();
+            request = buildPost(url, withType, multipartBody(boundary, parts), UPLOAD_TIMEOUT);
+        } catch (IOException e) {
+            throw new HttpException(HttpException.Kind.CLIENT_ERROR, 0, null, "HTTP POST failed: " + url, e);
+        }
+        return send(request, headers, DECODED_STRING);
+    }
 
-            for (Map.Entry<String, String> h : headers.entrySet()) {
-                builder.header(h.getKey(), h.getValue());
-            }
+    // Send a GET request with headers, returns response with headers
+    public static HttpResponse<String> getWithResponse(String url, Map<String, String> headers) throws HttpException {
+        return send(buildGet(url, headers, REQUEST_TIMEOUT), headers, DECODED_STRING);
+    }
 
-            return CLIENT.send(builder.build(), HttpResponse.BodyHandlers.ofString());
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("HTTP GET failed: " + url, e);
-        }
+    // Send a POST without blocking the caller, using the default request timeout
+    public static CompletableFuture<HttpResponse<String>> postAsync(String url, Map<String, String> headers, String body) {
+        return postAsync(url, headers, body, REQUEST_TIMEOUT);
+    }
+
+    // Send a POST without blocking the caller, with an explicit request timeout
+    public static CompletableFuture<HttpResponse<String>> postAsync(String url, Map<String, String> headers, String body, Duration timeout) {
+        return sendAsync(buildPost(url, headers, body, timeout), headers, DECODED_STRING);
+    }
+
+    // Send a GET without blocking the caller, using the default request timeout
+    public static CompletableFuture<HttpResponse<String>> getAsync(String url, Map<String, String> headers) {
+        return getAsync(url, headers, REQUEST_TIMEOUT);
+    }
+
+    // Send a GET without blocking the caller, with an explicit request timeout
+    public static CompletableFuture<HttpResponse<String>> getAsync(String url, Map<String, String> headers, Duration timeout) {
+        return sendAsync(buildGet(url, headers, timeout), headers, DECODED_STRING);
+    }
+
+    // Send a GET and parse the response body straight from the network stream
+    public static <T> HttpResponse<JsonBody<T>> getJson(String url, Map<String, String> headers, BodyParser<T> parser) throws HttpException {
+        return send(buildGet(url, headers, REQUEST_TIMEOUT), headers, jsonHandler(parser));
+    }
+
+    // Send a GET without blocking the caller and parse the response body straight from the network stream
+    public static <T> CompletableFuture<HttpResponse<JsonBody<T>>> getJsonAsync(String url, Map<String, String> headers, BodyParser<T> parser) {
+        return sendAsync(buildGet(url, headers, REQUEST_TIMEOUT), headers, jsonHandler(parser));
     }
 
     // Send a POST with form or JSON body (original method)
-    public static String postForm(String url, Map<String, String> headers, String body) {
+    public static String postForm(String url, Map<String, String> headers, String body) throws HttpException {
         return postFormWithResponse(url, headers, body).body();
     }
 
     // Send a GET request with headers (original method)
-    public static String get(String url, Map<String, String> headers) {
+    public static String get(String url, Map<String, String> headers) throws HttpException {
         return getWithResponse(url, headers).body();
     }
 
@@ -70,4 +176,243 @@ public class HttpUtil {
                 .orElse(response.headers().firstValue("dpop-nonce").orElse(null));
         return nonce;
     }
-}
\ No newline at end of file
+
+    // Blocking send with retries and circuit breaking (see RetryPolicy)
+    private static <T> HttpResponse<T> send(HttpRequest request, Map<String, String> headers,
+                                            HttpResponse.BodyHandler<T> handler) throws HttpException {
+        try {
+            return RetryPolicy.execute(request, () -> {
+                awaitRateLimit(request, headers);
+                return timedSend(request, headers, handler);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpException(HttpException.Kind.NETWORK, 0, null, "HTTP " + request.method() + " interrupted: " + request.uri(), e);
+        }
+    }
+
+    // Timed from the moment the request leaves the rate limiter
+    private static <T> HttpResponse<T> timedSend(HttpRequest request, Map<String, String> headers,
+                                                 HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return observe(CLIENT.send(request, handler), headers, start);
+        } catch (IOException e) {
+            recordFailure(request, start, e);
+            throw e;
+        }
+    }
+
+    // Async send with retries, circuit breaking and hedged GETs (see RetryPolicy)
+    private static <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, Map<String, String> headers,
+                                                                    HttpResponse.BodyHandler<T> handler) {
+        return RetryPolicy.executeAsync(request, () -> rateLimitedSendAsync(request, headers, handler), HttpUtil::discard);
+    }
+
+    // Waits out any rate-limit delay on a timer instead of a blocked thread
+    private static <T> CompletableFuture<HttpResponse<T>> rateLimitedSendAsync(HttpRequest request, Map<String, String> headers,
+                                                                               HttpResponse.BodyHandler<T> handler) {
+        Duration wait = RateLimitScheduler.reserve(request.uri(), headers);
+        if (wait.isZero()) {
+            return timedSendAsync(request, headers, handler);
+        }
+        Executor delayed = CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> null, delayed)
+                .thenCompose(ignored -> timedSendAsync(request, headers, handler));
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> timedSendAsync(HttpRequest request, Map<String, String> headers,
+                                                                         HttpResponse.BodyHandler<T> handler) {
+        long start = System.nanoTime();
+        return CLIENT.sendAsync(request, handler)
+                .whenComplete((response, error) -> {
+                    if (error != null) recordFailure(request, start, error);
+                })
+                .thenApply(response -> observe(response, headers, start));
+    }
+
+    // Like ofString(), but undoes any Content-Encoding first
+    private static final HttpResponse.BodyHandler<String> DECODED_STRING = info -> {
+        String encoding = contentEncoding(info);
+        Charset charset = charsetOf(info);
+        if (encoding.equals("identity")) {
+            return HttpResponse.BodySubscribers.ofString(charset);
+        }
+        return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> {
+            try {
+                return decodeToString(bytes, encoding, charset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    };
+
+    private static <T> HttpResponse.BodyHandler<JsonBody<T>> jsonHandler(BodyParser<T> parser) {
+        return info -> {
+            String encoding = contentEncoding(info);
+            if (info.statusCode() / 100 == 2) {
+                // Hand back a supplier so the blocking parse runs on the caller's thread, not the client's
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(), in -> () -> {
+                    // Parsers close their input and may stop early, so keep the network stream open
+                    // until the rest is drained and the HTTP/1.1 connection can be reused
+                    InputStream unclosable = new FilterInputStream(in) {
+                        @Override
+                        public void close() {}
+                    };
+                    try (in; InputStream body = decode(unclosable, encoding)) {
+                        T value = parser.parse(body);
+                        in.transferTo(OutputStream.nullOutputStream());
+                        return value;
+                    }
+                });
+            }
+            Charset charset = charsetOf(info);
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> () -> {
+                String text = decodeToString(bytes, encoding, charset);
+                throw new HttpException(RetryPolicy.classify(info.statusCode(), info.headers(), text), info.statusCode(),
+                        RetryPolicy.retryAfter(info.headers()), "HTTP " + info.statusCode() + ": " + text, null);
+            });
+        };
+    }
+
+    private static String contentEncoding(HttpResponse.ResponseInfo info) {
+        String encoding = info.headers().firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        return encoding.isEmpty() ? "identity" : encoding;
+    }
+
+    private static Charset charsetOf(HttpResponse.ResponseInfo info) {
+        String contentType = info.headers().firstValue("Content-Type").orElse("");
+        int i = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (i >= 0) {
+            String name = contentType.substring(i + 8).split(";", 2)[0].trim().replace("\"", "");
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException ignored) {
+                // Fall through to the JSON default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static String decodeToString(byte[] bytes, String encoding, Charset charset) throws IOException {
+        if (encoding.equals("identity")) {
+            return new String(bytes, charset);
+        }
+        try (InputStream in = decode(new ByteArrayInputStream(bytes), encoding)) {
+            return new String(in.readAllBytes(), charset);
+        }
+    }
+
+    private static InputStream decode(InputStream in, String encoding) throws IOException {
+        switch (encoding) {
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 8192);
+            case "deflate":
+                // Should be zlib-wrapped (RFC 9110), but some servers send raw deflate; check the zlib header
+                PushbackInputStream peek = new PushbackInputStream(in, 2);
+                int b0 = peek.read();
+                int b1 = peek.read();
+                if (b1 >= 0) peek.unread(b1);
+                if (b0 >= 0) peek.unread(b0);
+                boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+                return zlib ? new InflaterInputStream(peek) : new InflaterInputStream(peek, new Inflater(true));
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+
+    private static void awaitRateLimit(HttpRequest request, Map<String, String> headers) throws InterruptedException {
+        Duration wait = RateLimitScheduler.reserve(request.uri(), headers);
+        if (!wait.isZero()) {
+            System.out.println("Rate limit: holding request to " + request.uri().getHost() + " for " + wait.toMillis() + "ms");
+            Thread.sleep(wait.toMillis());
+        }
+    }
+
+    // Hook run on every response before it is handed back to the caller.
+    // The round trip includes DNS, TCP and TLS when the exchange had to open a new connection.
+    private static <T> HttpResponse<T> observe(HttpResponse<T> response, Map<String, String> requestHeaders, long start) {
+        HttpRequest request = response.request();
+        Metrics.recordNanos("crossposter_http_request_seconds", System.nanoTime() - start,
+                "host", request.uri().getHost(), "method", request.method(),
+                "status", Integer.toString(response.statusCode()));
+        DPoPUtil.updateNonce(response);
+        RateLimitScheduler.update(response, requestHeaders);
+        return response;
+    }
+
+    // Releases a response nobody will read: a streamed body holds its connection until consumed
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof JsonBody<?> body) {
+            try {
+                body.get();
+            } catch (IOException ignored) {
+                // Only reading it to free the connection
+            }
+        }
+    }
+
+    private static void recordFailure(HttpRequest request, long start, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String status = cause instanceof HttpTimeoutException ? "timeout" : "error";
+        Metrics.recordNanos("crossposter_http_request_seconds", System.nanoTime() - start,
+                "host", request.uri().getHost(), "method", request.method(), "status", status);
+    }
+
+    private static HttpRequest.BodyPublisher multipartBody(String boundary, List<Part> parts) throws IOException {
+        List<HttpRequest.BodyPublisher> publishers = new ArrayList<>();
+        for (Part part : parts) {
+            StringBuilder head = new StringBuilder("--").append(boundary).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"").append(part.name()).append('"');
+            if (part.file() != null) {
+                head.append("; filename=\"").append(part.file().getFileName().toString().replace("\"", "")).append('"')
+                        .append("\r\nContent-Type: ").append(part.contentType());
+            }
+            head.append("\r\n\r\n");
+            publishers.add(HttpRequest.BodyPublishers.ofString(head.toString(), StandardCharsets.UTF_8));
+            publishers.add(part.file() != null
+                    ? HttpRequest.BodyPublishers.ofFile(part.file())
+                    : HttpRequest.BodyPublishers.ofString(part.value(), StandardCharsets.UTF_8));
+            publishers.add(HttpRequest.BodyPublishers.ofString("\r\n"));
+        }
+        publishers.add(HttpRequest.BodyPublishers.ofString("--" + boundary + "--\r\n"));
+        return HttpRequest.BodyPublishers.concat(publishers.toArray(HttpRequest.BodyPublisher[]::new));
+    }
+
+    private static HttpRequest buildPost(String url, Map<String, String> headers, String body, Duration timeout) {
+        return buildPost(url, headers, HttpRequest.BodyPublishers.ofString(body), timeout);
+    }
+
+    private static HttpRequest buildPost(String url, Map<String, String> headers, HttpRequest.BodyPublisher body, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .POST(body);
+
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            builder.header(h.getKey(), h.getValue());
+        }
+        if (headers.keySet().stream().noneMatch("Accept-Encoding"::equalsIgnoreCase)) {
+            builder.header("Accept-Encoding", ACCEPT_ENCODING);
+        }
+        return builder.build();
+    }
+
+    private static HttpRequest buildGet(String url, Map<String, String> headers, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .GET();
+
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            builder.header(h.getKey(), h.getValue());
+        }
+        if (headers.keySet().stream().noneMatch("Accept-Encoding"::equalsIgnoreCase)) {
+            builder.header("Accept-Encoding", ACCEPT_ENCODING);
+        }
+        return builder.build();
+    }
+}
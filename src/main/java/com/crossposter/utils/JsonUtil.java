@@ -0,0 +1,81 @@
+package com.crossposter.utils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Shared Jackson configuration. Readers and writers for the API models are built once from
+ * {@link #MAPPER} and reused, so per-request work is limited to the actual (de)serialization.
+ */
+public final class JsonUtil {
+
+    // Blackbird can be turned off with -Dcrossposter.json.blackbird=false (e.g. to compare, or on restricted runtimes)
+    private static final boolean BLACKBIRD = Boolean.parseBoolean(System.getProperty("crossposter.json.blackbird", "true"));
+
+    public static final ObjectMapper MAPPER = createMapper();
+
+    private JsonUtil() {}
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        if (BLACKBIRD) {
+            mapper.registerModule(new BlackbirdModule());
+        }
+        return mapper;
+    }
+
+    /**
+     * Pulls a few top-level string fields out of a JSON object without building a tree,
+     * skipping nested objects and arrays and stopping as soon as every field is found.
+     * @return values in the same order as names; null where a field is missing or not a string
+     */
+    public static String[] extractStrings(String json, String... names) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            return extractStrings(parser, names);
+        }
+    }
+
+    /**
+     * Same as {@link #extractStrings(String, String...)}, reading from a stream. Stops reading
+     * once every field is found; the caller owns (and closes) the stream.
+     */
+    public static String[] extractStrings(InputStream json, String... names) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            return extractStrings(parser, names);
+        }
+    }
+
+    private static String[] extractStrings(JsonParser parser, String... names) throws IOException {
+        String[] values = new String[names.length];
+        int remaining = names.length;
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object");
+        }
+        while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            int index = indexOf(names, field);
+            if (index >= 0 && values[index] == null && value == JsonToken.VALUE_STRING) {
+                values[index] = parser.getText();
+                remaining--;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
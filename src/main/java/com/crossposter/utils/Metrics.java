@@ -0,0 +1,158 @@
+package com.crossposter.utils;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free in-process metrics: counters and log-linear latency histograms, keyed by metric
+ * name and label set, rendered in the Prometheus text format by {@link #scrape()}.
+ */
+public final class Metrics {
+    // Histogram bucket bounds: every power of two of nanoseconds and halfway between, 131us to 103s
+    private static final long[] BUCKET_BOUNDS = Histogram.bounds(17, 36);
+
+    private static final Map<String, Series<LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Series<Histogram>> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private record Series<T>(String name, String labels, T value) {}
+
+    private Metrics() {}
+
+    /**
+     * Adds one to a counter.
+     * @param name metric name without the _total suffix (e.g. crossposter_retries)
+     * @param labels alternating label names and values
+     */
+    public static void increment(String name, String... labels) {
+        String rendered = renderLabels(labels);
+        COUNTERS.computeIfAbsent(name + rendered, k -> new Series<>(name, rendered, new LongAdder())).value().increment();
+    }
+
+    /**
+     * Records a duration in a latency histogram.
+     * @param name metric name (e.g. crossposter_http_request_seconds)
+     * @param nanos elapsed time from System.nanoTime()
+     * @param labels alternating label names and values
+     */
+    public static void recordNanos(String name, long nanos, String... labels) {
+        String rendered = renderLabels(labels);
+        HISTOGRAMS.computeIfAbsent(name + rendered, k -> new Series<>(name, rendered, new Histogram())).value().record(nanos);
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+
+        Map<String, StringBuilder> counters = new TreeMap<>();
+        for (Series<LongAdder> s : COUNTERS.values()) {
+            counters.computeIfAbsent(s.name(), k -> new StringBuilder())
+                    .append(s.name()).append("_total").append(s.labels()).append(' ').append(s.value().sum()).append('\n');
+        }
+        counters.forEach((name, lines) -> out.append("# TYPE ").append(name).append("_total counter\n").append(lines));
+
+        Map<String, StringBuilder> histograms = new TreeMap<>();
+        for (Series<Histogram> s : HISTOGRAMS.values()) {
+            StringBuilder lines = histograms.computeIfAbsent(s.name(), k -> new StringBuilder());
+            Histogram.Snapshot snap = s.value().snapshot();
+            for (long bound : BUCKET_BOUNDS) {
+                lines.append(s.name()).append("_bucket").append(withLabel(s.labels(), "le", seconds(bound)))
+                        .append(' ').append(snap.countBelow(bound)).append('\n');
+            }
+            lines.append(s.name()).append("_bucket").append(withLabel(s.labels(), "le", "+Inf"))
+                    .append(' ').append(snap.count()).append('\n');
+            lines.append(s.name()).append("_sum").append(s.labels()).append(' ').append(seconds(snap.sum())).append('\n');
+            lines.append(s.name()).append("_count").append(s.labels()).append(' ').append(snap.count()).append('\n');
+        }
+        histograms.forEach((name, lines) -> out.append("# TYPE ").append(name).append(" histogram\n").append(lines));
+
+        return out.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String renderLabels(String... labels) {
+        if (labels.length == 0) return "";
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String withLabel(String rendered, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return rendered.isEmpty() ? "{" + label + "}" : rendered.substring(0, rendered.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "";
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * HDR-style log-linear histogram: 16 linear sub-buckets per power of two (~6% relative error),
+     * recorded with a single atomic increment. Scraped as cumulative counts at a fixed set of
+     * sub-bucket edges, so the series of every instance can be summed and rate()'d.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+
+        record Snapshot(long[] counts, long count, long sum) {
+            // Values below a bound that is a sub-bucket edge, counted exactly
+            long countBelow(long bound) {
+                long seen = 0;
+                for (int i = indexOf(bound) - 1; i >= 0; i--) {
+                    seen += counts[i];
+                }
+                return seen;
+            }
+        }
+
+        // 2^n and 1.5 * 2^n for n from minPower to maxPower; both are sub-bucket edges
+        static long[] bounds(int minPower, int maxPower) {
+            long[] bounds = new long[(maxPower - minPower + 1) * 2];
+            for (int n = minPower, i = 0; n <= maxPower; n++) {
+                bounds[i++] = 1L << n;
+                bounds[i++] = 3L << (n - 1);
+            }
+            return bounds;
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(indexOf(value));
+            sum.add(value);
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+                total += copy[i];
+            }
+            return new Snapshot(copy, total, sum.sum());
+        }
+
+        static int indexOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+    }
+}
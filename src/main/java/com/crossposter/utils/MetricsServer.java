@@ -0,0 +1,70 @@
+package com.crossposter.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link Metrics#scrape()} at http://127.0.0.1:&lt;port&gt;/metrics for Prometheus.
+ */
+public class MetricsServer {
+
+    // Port can be overridden with -Dcrossposter.metrics.port (0 or less disables the endpoint)
+    public static final int DEFAULT_PORT = Integer.getInteger("crossposter.metrics.port", 9464);
+
+    private final int port;
+    private HttpServer server;
+
+    public MetricsServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts the HTTP server on 127.0.0.1 and serves /metrics.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/metrics", exchange -> {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (var os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        System.out.println("Metrics available at http://127.0.0.1:" + port + "/metrics");
+    }
+
+    /**
+     * Stops the HTTP server.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Starts the endpoint on the configured port, logging instead of failing if it can't bind.
+     * @return the running server, or null if disabled or unavailable
+     */
+    public static MetricsServer startDefault() {
+        if (DEFAULT_PORT <= 0) return null;
+        MetricsServer server = new MetricsServer(DEFAULT_PORT);
+        try {
+            server.start();
+            return server;
+        } catch (IOException e) {
+            System.out.println("Metrics endpoint disabled: " + e.getMessage());
+            return null;
+        }
+    }
+}
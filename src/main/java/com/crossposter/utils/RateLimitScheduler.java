@@ -0,0 +1,227 @@
+package com.crossposter.utils;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Client-side rate limiting driven by the servers' own rate-limit headers.
+ * Mastodon sends {@code X-RateLimit-Limit/Remaining/Reset} (reset as an ISO-8601 timestamp) and the
+ * Bluesky PDS sends {@code RateLimit-Limit/Remaining/Reset} (reset in epoch seconds). Each
+ * (host, account, endpoint class) gets a bucket that is re-synced from every response; requests go
+ * out at once while the window has budget left and are held once it is exhausted, instead of
+ * running into a 429. Endpoints the servers limit separately (media uploads, OAuth, repo writes)
+ * get their own buckets, so using up one doesn't hold back the others.
+ * <p>
+ * The account is known from {@link #bindAccount}; a token that was never bound gets a bucket of its
+ * own. Buckets that have been idle for a while are dropped.
+ */
+public final class RateLimitScheduler {
+    private static final long IDLE_EVICT_MS = 15 * 60_000;
+    private static final long SWEEP_INTERVAL_MS = 60_000;
+
+    private static final Map<String, Bucket> BUCKETS = new ConcurrentHashMap<>();
+    // Access token -> account id, and the token each account currently uses
+    private static final Map<String, String> TOKEN_ACCOUNTS = new ConcurrentHashMap<>();
+    private static final Map<String, String> ACCOUNT_TOKENS = new ConcurrentHashMap<>();
+    private static final AtomicLong lastSweep = new AtomicLong();
+    private static volatile BiConsumer<String, Duration> waitListener = (host, wait) -> {};
+
+    private RateLimitScheduler() {}
+
+    private static final class Bucket {
+        long limit = -1;      // -1 until the server tells us
+        long remaining = -1;
+        long resetAt;         // epoch millis, 0 if unknown
+        long nextSlot;        // when the window that ran out resets; requests queued behind it start then
+        long lastUsed;
+
+        synchronized long reserve(long now) {
+            lastUsed = now;
+            if (resetAt > 0 && now >= resetAt) {
+                remaining = limit;
+                resetAt = 0;
+            }
+
+            long start = Math.max(now, nextSlot);
+            if (remaining == 0 && resetAt > start) {
+                // Window exhausted: hold until it resets, then assume a fresh window until headers say otherwise
+                start = resetAt;
+                remaining = limit > 0 ? limit - 1 : -1;
+                resetAt = 0;
+                nextSlot = start;
+            } else if (remaining > 0) {
+                remaining--;
+            }
+            return start - now;
+        }
+
+        synchronized void update(long limit, long remaining, long resetAt) {
+            lastUsed = System.currentTimeMillis();
+            if (limit >= 0) this.limit = limit;
+            if (remaining >= 0) this.remaining = remaining;
+            if (resetAt > 0) this.resetAt = resetAt;
+        }
+
+        // Nothing left to remember: unused for a while, and no window is still running out
+        synchronized boolean isIdle(long now) {
+            return now - lastUsed > IDLE_EVICT_MS && resetAt < now && nextSlot < now;
+        }
+    }
+
+    /**
+     * Registers a callback told whenever a request is held back (host, projected wait), e.g. for the UI.
+     */
+    public static void setWaitListener(BiConsumer<String, Duration> listener) {
+        waitListener = listener == null ? (host, wait) -> {} : listener;
+    }
+
+    /**
+     * Tells the scheduler which account an access token belongs to, so its buckets survive token
+     * refreshes. Call it whenever an account gets a new token.
+     */
+    public static void bindAccount(String accessToken, String account) {
+        if (accessToken == null || account == null) return;
+        String previous = ACCOUNT_TOKENS.put(account, accessToken);
+        if (previous != null && !previous.equals(accessToken)) {
+            TOKEN_ACCOUNTS.remove(previous);
+        }
+        TOKEN_ACCOUNTS.put(accessToken, account);
+    }
+
+    /**
+     * Forgets an account's token, e.g. when the account is disconnected.
+     */
+    public static void unbindAccount(String account) {
+        String token = ACCOUNT_TOKENS.remove(account);
+        if (token != null) TOKEN_ACCOUNTS.remove(token);
+    }
+
+    /**
+     * Reserves a slot for a request and returns how long the caller must wait before sending it.
+     */
+    public static Duration reserve(URI uri, Map<String, String> headers) {
+        long delay = bucket(uri, headers).reserve(System.currentTimeMillis());
+        Duration wait = Duration.ofMillis(delay);
+        if (delay > 0) {
+            waitListener.accept(uri.getHost(), wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Returns how long a request to the URI would currently be held, without reserving a slot.
+     */
+    public static Duration projectedWait(URI uri, Map<String, String> headers) {
+        Bucket bucket = BUCKETS.get(key(uri, headers));
+        if (bucket == null) return Duration.ZERO;
+        synchronized (bucket) {
+            long now = System.currentTimeMillis();
+            long start = Math.max(now, bucket.nextSlot);
+            if (bucket.remaining == 0 && bucket.resetAt > start) start = bucket.resetAt;
+            return Duration.ofMillis(start - now);
+        }
+    }
+
+    /**
+     * Re-syncs the request's bucket from the response's rate-limit headers (and Retry-After on 429).
+     */
+    public static void update(HttpResponse<?> response, Map<String, String> requestHeaders) {
+        HttpHeaders h = response.headers();
+        long limit = parseLong(first(h, "RateLimit-Limit", "X-RateLimit-Limit"));
+        long remaining = parseLong(first(h, "RateLimit-Remaining", "X-RateLimit-Remaining"));
+        long resetAt = parseReset(first(h, "RateLimit-Reset", "X-RateLimit-Reset"));
+
+        if (response.statusCode() == 429) {
+            remaining = 0;
+            long retryAfter = parseLong(h.firstValue("Retry-After").orElse(null));
+            if (retryAfter >= 0) {
+                resetAt = Math.max(resetAt, System.currentTimeMillis() + retryAfter * 1000);
+            }
+        }
+
+        if (limit >= 0 || remaining >= 0 || resetAt > 0) {
+            bucket(response.request().uri(), requestHeaders).update(limit, remaining, resetAt);
+        }
+    }
+
+    private static Bucket bucket(URI uri, Map<String, String> headers) {
+        sweep();
+        return BUCKETS.computeIfAbsent(key(uri, headers), k -> new Bucket());
+    }
+
+    private static void sweep() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(last, now)) return;
+        BUCKETS.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    // Limits are per account on both networks, and some endpoints have limits of their own
+    private static String key(URI uri, Map<String, String> headers) {
+        String auth = null;
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase("Authorization")) {
+                auth = e.getValue();
+                break;
+            }
+        }
+        String account = "anonymous";
+        if (auth != null) {
+            // "Bearer <token>" or "DPoP <token>"
+            String token = auth.substring(auth.indexOf(' ') + 1);
+            account = TOKEN_ACCOUNTS.getOrDefault(token, "token:" + Integer.toHexString(token.hashCode()));
+        }
+        return uri.getHost() + "|" + account + "|" + endpointClass(uri);
+    }
+
+    private static String endpointClass(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        if (path.startsWith("/api/v1/media") || path.startsWith("/api/v2/media")) return "media";
+        if (path.startsWith("/oauth/")) return "auth";
+        if (path.matches("/xrpc/com\\.atproto\\.repo\\.(applyWrites|createRecord|putRecord|deleteRecord)")) return "repo-write";
+        return "default";
+    }
+
+    private static String first(HttpHeaders headers, String... names) {
+        for (String name : names) {
+            String value = headers.firstValue(name).orElse(null);
+            if (value != null) return value;
+        }
+        return null;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseReset(String value) {
+        if (value == null) return 0;
+        long n = parseLong(value);
+        if (n >= 0) {
+            // Epoch seconds (Bluesky) vs. seconds-until-reset (draft RateLimit headers)
+            return n > 1_000_000_000L ? n * 1000 : System.currentTimeMillis() + n * 1000;
+        }
+        try {
+            return OffsetDateTime.parse(value.trim()).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            try {
+                return Instant.parse(value.trim()).toEpochMilli();
+            } catch (Exception ignored) {
+                return 0;
+            }
+        }
+    }
+}
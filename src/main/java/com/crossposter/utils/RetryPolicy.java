@@ -0,0 +1,354 @@
+package com.crossposter.utils;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decides what to do when an HTTP exchange fails, for every request {@link HttpUtil} sends.
+ * <ul>
+ *   <li>Failures are classified into {@link HttpException.Kind}s.</li>
+ *   <li>Requests that are safe to send twice (GETs, and POSTs with an Idempotency-Key) are retried
+ *   after a 5xx, a 429 or an I/O error, with exponential backoff and full jitter, or after the
+ *   server's Retry-After. Requests that never left the machine (connection refused, connect
+ *   timeout) are always retried. Requests carrying a DPoP proof are never replayed here, as the
+ *   server may have seen the proof already; callers retry those with a new proof.</li>
+ *   <li>Each host has a circuit breaker: after {@value #DEFAULT_FAILURE_THRESHOLD} consecutive 5xx
+ *   or I/O failures it opens, and requests fail at once with {@link HttpException.Kind#CIRCUIT_OPEN}
+ *   instead of queueing on a degraded server. After a pause one request is let through to probe it.</li>
+ *   <li>Async GETs are hedged: if no response came after a delay, a second identical request is sent
+ *   and whichever answers first wins.</li>
+ * </ul>
+ * The limits can be overridden with -Dcrossposter.http.maxAttempts, .maxRetryAfterSeconds,
+ * .circuitFailures, .circuitOpenMs and .hedgeAfterMs (0 turns hedging off).
+ */
+public final class RetryPolicy {
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    private static final int MAX_ATTEMPTS = Integer.getInteger("crossposter.http.maxAttempts", 3);
+    private static final long BASE_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    // A longer Retry-After isn't waited out; the caller gets the error straight away
+    private static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(Long.getLong("crossposter.http.maxRetryAfterSeconds", 60));
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("crossposter.http.circuitFailures", DEFAULT_FAILURE_THRESHOLD);
+    private static final long OPEN_MS = Long.getLong("crossposter.http.circuitOpenMs", 30_000);
+    private static final long HEDGE_AFTER_MS = Long.getLong("crossposter.http.hedgeAfterMs", 1_000);
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private RetryPolicy() {}
+
+    /**
+     * One attempt at the exchange.
+     */
+    @FunctionalInterface
+    public interface Exchange<T> {
+        HttpResponse<T> send() throws IOException, InterruptedException;
+    }
+
+    private enum Permit { DENIED, ALLOWED, PROBE }
+
+    private static final class CircuitBreaker {
+        private final String host;
+        private int failures;
+        private long openUntil;   // epoch millis; 0 while closed
+        private boolean probing;  // half-open: one request is testing the host
+
+        CircuitBreaker(String host) {
+            this.host = host;
+        }
+
+        synchronized Permit tryAcquire() {
+            if (openUntil == 0) return Permit.ALLOWED;
+            if (System.currentTimeMillis() < openUntil || probing) return Permit.DENIED;
+            probing = true;
+            return Permit.PROBE;
+        }
+
+        // Ends a probe however it finished, so an abandoned one doesn't block the host for good
+        synchronized void release(Permit permit) {
+            if (permit == Permit.PROBE) probing = false;
+        }
+
+        synchronized boolean isClosed() {
+            return openUntil == 0;
+        }
+
+        synchronized long retryInMs() {
+            return Math.max(0, openUntil - System.currentTimeMillis());
+        }
+
+        // Any response below 500 shows the host is serving requests
+        synchronized void record(boolean healthy) {
+            boolean wasOpen = openUntil != 0;
+            probing = false;
+            if (healthy) {
+                failures = 0;
+                openUntil = 0;
+                if (wasOpen) {
+                    System.out.println("Circuit closed for " + host);
+                    Metrics.increment("crossposter_circuit_transitions", "host", host, "state", "closed");
+                }
+            } else if (wasOpen || ++failures >= FAILURE_THRESHOLD) {
+                openUntil = System.currentTimeMillis() + OPEN_MS;
+                if (!wasOpen) {
+                    System.out.println("Circuit open for " + host + " after " + failures + " failures; failing fast for " + OPEN_MS + "ms");
+                    Metrics.increment("crossposter_circuit_transitions", "host", host, "state", "open");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the kind of failure the response is, or null if it is a success (below 400)
+     * @param body the response text if available, to tell DPoP and token errors apart; may be null
+     */
+    public static HttpException.Kind classify(int status, HttpHeaders headers, String body) {
+        if (status < 400) return null;
+        String challenge = headers.firstValue("WWW-Authenticate").orElse("");
+        String text = body == null ? "" : body;
+        if ((status == 400 || status == 401) && (challenge.contains("use_dpop_nonce") || text.contains("use_dpop_nonce"))) {
+            return HttpException.Kind.NONCE_REQUIRED;
+        }
+        if (status == 401 || text.contains("InvalidToken") || text.contains("ExpiredToken") || text.contains("ath mismatch")) {
+            return HttpException.Kind.TOKEN_EXPIRED;
+        }
+        if (status == 403 && (challenge.contains("insufficient_scope") || text.contains("ScopeMissing"))) {
+            return HttpException.Kind.SCOPE_MISSING;
+        }
+        if (status == 429) return HttpException.Kind.RATE_LIMITED;
+        if (status >= 500) return HttpException.Kind.SERVER_ERROR;
+        return HttpException.Kind.CLIENT_ERROR;
+    }
+
+    public static HttpException.Kind classify(HttpResponse<String> response) {
+        return classify(response.statusCode(), response.headers(), response.body());
+    }
+
+    public static HttpException.Kind classify(IOException e) {
+        return e instanceof HttpTimeoutException ? HttpException.Kind.TIMEOUT : HttpException.Kind.NETWORK;
+    }
+
+    /**
+     * @return the Retry-After header (delay in seconds, or an HTTP date) as a delay, or null
+     */
+    public static Duration retryAfter(HttpHeaders headers) {
+        String value = headers.firstValue("Retry-After").orElse(null);
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Duration.ofMillis(Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis()));
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Whether to try again after the failed attempt (0-based) of an operation.
+     * @param idempotent whether a second copy of the request is harmless
+     */
+    public static boolean shouldRetry(HttpException failure, int attempt, boolean idempotent) {
+        if (attempt + 1 >= MAX_ATTEMPTS) return false;
+        if (failure.retryAfter() != null && failure.retryAfter().compareTo(MAX_RETRY_AFTER) > 0) return false;
+        return switch (failure.kind()) {
+            case RATE_LIMITED -> true; // Refused, not processed
+            case SERVER_ERROR, TIMEOUT, NETWORK -> idempotent;
+            default -> false;
+        };
+    }
+
+    /**
+     * How long to wait before the next attempt: the server's Retry-After if it gave one,
+     * otherwise a random delay up to 250ms doubled per attempt (capped at 10s).
+     */
+    public static Duration delay(HttpException failure, int attempt) {
+        if (failure.retryAfter() != null) return failure.retryAfter();
+        long cap = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    /**
+     * Sends the request, retrying and tripping the host's circuit breaker as described above.
+     * An error response that isn't retried is returned as is, for the caller to read.
+     * @throws HttpException if no response could be had, or the circuit is open
+     */
+    public static <T> HttpResponse<T> execute(HttpRequest request, Exchange<T> exchange) throws HttpException, InterruptedException {
+        CircuitBreaker breaker = breakerFor(request);
+        for (int attempt = 0; ; attempt++) {
+            Permit permit = breaker.tryAcquire();
+            if (permit == Permit.DENIED) throw circuitOpen(request, breaker);
+            HttpException failure;
+            try {
+                HttpResponse<T> response = exchange.send();
+                breaker.record(response.statusCode() < 500);
+                failure = retryableFailure(response);
+                if (failure == null || !mayRetry(request, failure, attempt, null)) return response;
+            } catch (IOException e) {
+                breaker.record(false);
+                failure = new HttpException(classify(e), 0, null, "HTTP " + request.method() + " failed: " + request.uri(), e);
+                if (!mayRetry(request, failure, attempt, e)) throw failure;
+            } finally {
+                breaker.release(permit);
+            }
+            Duration wait = announceRetry(request, failure, attempt);
+            Thread.sleep(wait.toMillis());
+        }
+    }
+
+    /**
+     * Async {@link #execute}: waits between attempts on a timer rather than a thread, and hedges
+     * idempotent GETs.
+     * @param discard releases a response that lost the race to a hedged request
+     */
+    public static <T> CompletableFuture<HttpResponse<T>> executeAsync(HttpRequest request,
+                                                                      Supplier<CompletableFuture<HttpResponse<T>>> exchange,
+                                                                      Consumer<HttpResponse<T>> discard) {
+        if (HEDGE_AFTER_MS <= 0 || !request.method().equals("GET") || !isReplayable(request)) {
+            return attemptAsync(request, exchange, 0);
+        }
+
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        BiConsumer<HttpResponse<T>, Throwable> settle = (response, error) -> {
+            if (error == null) {
+                if (!result.complete(response)) discard.accept(response);
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(unwrap(error));
+            }
+        };
+        attemptAsync(request, exchange, 0).whenComplete(settle);
+        CompletableFuture.delayedExecutor(HEDGE_AFTER_MS, TimeUnit.MILLISECONDS).execute(() -> {
+            // Only healthy hosts get a second copy; a struggling one doesn't need the extra load
+            if (result.isDone() || !breakerFor(request).isClosed()) return;
+            running.incrementAndGet();
+            Metrics.increment("crossposter_http_hedges", "host", request.uri().getHost());
+            attemptAsync(request, exchange, 0).whenComplete(settle);
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> attemptAsync(HttpRequest request,
+                                                                       Supplier<CompletableFuture<HttpResponse<T>>> exchange,
+                                                                       int attempt) {
+        CircuitBreaker breaker = breakerFor(request);
+        Permit permit = breaker.tryAcquire();
+        if (permit == Permit.DENIED) {
+            return CompletableFuture.failedFuture(circuitOpen(request, breaker));
+        }
+        CompletableFuture<HttpResponse<T>> sent;
+        try {
+            sent = exchange.get();
+        } catch (RuntimeException e) {
+            breaker.release(permit);
+            return CompletableFuture.failedFuture(e);
+        }
+        return sent.handle((response, error) -> {
+            HttpException failure;
+            Throwable cause = unwrap(error);
+            try {
+                if (cause == null) {
+                    breaker.record(response.statusCode() < 500);
+                    failure = retryableFailure(response);
+                    if (failure == null || !mayRetry(request, failure, attempt, null)) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                } else if (cause instanceof IOException e) {
+                    breaker.record(false);
+                    failure = new HttpException(classify(e), 0, null, "HTTP " + request.method() + " failed: " + request.uri(), e);
+                    if (!mayRetry(request, failure, attempt, e)) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(failure);
+                    }
+                } else {
+                    return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                }
+            } finally {
+                breaker.release(permit);
+            }
+            Duration wait = announceRetry(request, failure, attempt);
+            return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> attemptAsync(request, exchange, attempt + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    // Only the failures the transport may retry by itself; the rest are for the caller to handle
+    private static HttpException retryableFailure(HttpResponse<?> response) {
+        HttpException.Kind kind = classify(response.statusCode(), response.headers(), null);
+        if (kind != HttpException.Kind.RATE_LIMITED && kind != HttpException.Kind.SERVER_ERROR) return null;
+        return new HttpException(kind, response.statusCode(), retryAfter(response.headers()), "HTTP " + response.statusCode(), null);
+    }
+
+    private static Duration announceRetry(HttpRequest request, HttpException failure, int attempt) {
+        Duration wait = delay(failure, attempt);
+        Metrics.increment("crossposter_http_retries", "host", request.uri().getHost(),
+                "reason", failure.kind().name().toLowerCase(Locale.ROOT));
+        System.out.println("Retrying " + request.method() + " " + request.uri() + " in " + wait.toMillis() + "ms (" + failure.kind() + ")");
+        return wait;
+    }
+
+    /**
+     * Whether the transport may send the request again.
+     * @param error the I/O error of the attempt, or null if there was a response
+     */
+    private static boolean mayRetry(HttpRequest request, HttpException failure, int attempt, IOException error) {
+        if (!isReplayable(request)) return false;
+        return shouldRetry(failure, attempt, isIdempotent(request) || (error != null && neverSent(error)));
+    }
+
+    // A DPoP proof is only good for one request, even if the server refused it with a 429
+    private static boolean isReplayable(HttpRequest request) {
+        return request.headers().firstValue("DPoP").isEmpty();
+    }
+
+    // Idempotency-Key is how Mastodon makes a POST safe to repeat
+    private static boolean isIdempotent(HttpRequest request) {
+        return request.method().equals("GET") || request.method().equals("HEAD")
+                || request.headers().firstValue("Idempotency-Key").isPresent();
+    }
+
+    // The request never reached the server, so sending it again can't duplicate anything
+    private static boolean neverSent(IOException e) {
+        return e instanceof HttpConnectTimeoutException || e instanceof ConnectException
+                || e instanceof UnknownHostException || e.getCause() instanceof ConnectException;
+    }
+
+    private static HttpException circuitOpen(HttpRequest request, CircuitBreaker breaker) {
+        long retryIn = breaker.retryInMs();
+        Metrics.increment("crossposter_http_rejected", "host", request.uri().getHost());
+        return new HttpException(HttpException.Kind.CIRCUIT_OPEN, 0, Duration.ofMillis(retryIn),
+                request.uri().getHost() + " is failing; not sending " + request.method() + " " + request.uri()
+                        + " for another " + retryIn + "ms", null);
+    }
+
+    private static CircuitBreaker breakerFor(HttpRequest request) {
+        return BREAKERS.computeIfAbsent(request.uri().getRawAuthority(), CircuitBreaker::new);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
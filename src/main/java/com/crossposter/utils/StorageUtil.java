@@ -0,0 +1,63 @@
+package com.crossposter.utils;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+public final class StorageUtil {
+    // Local data directory, overridable with -Dcrossposter.dataDir
+    private static final Path DATA_DIR = Path.of(System.getProperty("crossposter.dataDir",
+            Path.of(System.getProperty("user.home"), ".crossposter").toString()));
+
+    private StorageUtil() {}
+
+    /**
+     * Resolves a file inside the local data directory, creating the directory if needed.
+     * @param name file name (e.g. oauth-metadata.json)
+     */
+    public static Path dataFile(String name) {
+        try {
+            Files.createDirectories(DATA_DIR);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create data directory: " + DATA_DIR, e);
+        }
+        return DATA_DIR.resolve(name);
+    }
+
+    /**
+     * Replaces the file contents so readers never see a partially written file. The data goes to
+     * a temp file of its own first, so concurrent writers of the same file never share one.
+     */
+    public static void writeAtomically(Path file, byte[] data) throws IOException {
+        replace(file, data, Files.createTempFile(directoryOf(file), file.getFileName().toString(), ".tmp"));
+    }
+
+    /**
+     * Like {@link #writeAtomically}, but the file is readable only by its owner from the moment
+     * it is created (on file systems with POSIX permissions).
+     */
+    public static void writePrivately(Path file, byte[] data) throws IOException {
+        Path dir = directoryOf(file);
+        String prefix = file.getFileName().toString();
+        Path tmp = FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+                ? Files.createTempFile(dir, prefix, ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                : Files.createTempFile(dir, prefix, ".tmp");
+        replace(file, data, tmp);
+    }
+
+    private static void replace(Path file, byte[] data, Path tmp) throws IOException {
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path directoryOf(Path file) {
+        return file.toAbsolutePath().getParent();
+    }
+}
@@ -0,0 +1,79 @@
+package com.crossposter.utils;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * AT Protocol timestamp identifiers (TIDs): 13 base32-sortable characters encoding a microsecond
+ * timestamp and a 10-bit clock id. Used as Bluesky record keys, and as the delivery id of a post,
+ * so a retried post writes the same record instead of a second one.
+ */
+public final class Tid {
+    private static final String ALPHABET = "234567abcdefghijklmnopqrstuvwxyz";
+    private static final Pattern SYNTAX = Pattern.compile("^[234567abcdefghij][234567abcdefghijklmnopqrstuvwxyz]{12}$");
+    private static final int CLOCK_ID_BITS = 10;
+    private static final int CLOCK_ID_MASK = (1 << CLOCK_ID_BITS) - 1;
+
+    // Random per process, so two instances of the app writing to one repo don't collide
+    private static final int CLOCK_ID = new SecureRandom().nextInt(1 << CLOCK_ID_BITS);
+    private static final AtomicLong LAST_MICROS = new AtomicLong();
+
+    private Tid() {}
+
+    /**
+     * A new TID, strictly greater than every TID this process generated before, even if the
+     * system clock steps back. Lock-free.
+     */
+    public static String next() {
+        Instant now = Instant.now();
+        long micros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+        long last;
+        long next;
+        do {
+            last = LAST_MICROS.get();
+            next = Math.max(micros, last + 1);
+        } while (!LAST_MICROS.compareAndSet(last, next));
+        return of(next, CLOCK_ID);
+    }
+
+    public static String of(long micros, int clockId) {
+        long value = (micros << CLOCK_ID_BITS) | (clockId & CLOCK_ID_MASK);
+        char[] chars = new char[13];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt((int) (value & 31));
+            value >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    public static boolean isValid(String tid) {
+        return tid != null && SYNTAX.matcher(tid).matches();
+    }
+
+    /**
+     * The n-th key derived from a TID: same timestamp, clock id advanced by n. Used for the
+     * posts of a thread, which all belong to one delivery.
+     */
+    public static String derive(String tid, int n) {
+        long value = decode(tid);
+        return of(value >>> CLOCK_ID_BITS, (int) (value & CLOCK_ID_MASK) + n);
+    }
+
+    public static Instant timestamp(String tid) {
+        long micros = decode(tid) >>> CLOCK_ID_BITS;
+        return Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1_000);
+    }
+
+    private static long decode(String tid) {
+        if (!isValid(tid)) {
+            throw new IllegalArgumentException("Not a TID: " + tid);
+        }
+        long value = 0;
+        for (int i = 0; i < tid.length(); i++) {
+            value = (value << 5) | ALPHABET.indexOf(tid.charAt(i));
+        }
+        return value;
+    }
+}